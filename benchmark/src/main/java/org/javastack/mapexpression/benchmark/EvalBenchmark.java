@@ -0,0 +1,123 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.javastack.mapexpression.CompiledExpression;
+import org.javastack.mapexpression.InvalidExpression;
+import org.javastack.mapexpression.MapExpression;
+import org.javastack.mapexpression.mapper.MapMapper;
+import org.javastack.mapexpression.mapper.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Eval throughput for each kind of output, the compiled expression is shared between threads (run with
+ * <code>-t N</code> to measure contention)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvalBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Param({ "64", "4096", "65536" })
+	public int size;
+
+	@Param({ "1", "16", "128" })
+	public int density;
+
+	@Param({ "${|}", "{{|}}" })
+	public String delimiters;
+
+	private String template;
+	private CompiledExpression compiled;
+	private Mapper mapper;
+
+	@Setup
+	public void setup() throws InvalidExpression {
+		template = Templates.generate(size, density, delimiters);
+		compiled = CompiledExpression.compile(template, Templates.beginToken(delimiters),
+				Templates.endToken(delimiters), null);
+		mapper = new MapMapper(Templates.values("value-"));
+	}
+
+	@State(Scope.Thread)
+	public static class Sinks {
+		final StringBuilder sb = new StringBuilder();
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final CharArrayWriter cw = new CharArrayWriter();
+		final PrintWriter pw = new PrintWriter(cw);
+		MapExpression legacy;
+
+		@Setup
+		public void setup(final EvalBenchmark b) throws InvalidExpression {
+			legacy = new MapExpression() //
+					.setExpression(b.template) //
+					.setDelimiters(Templates.beginToken(b.delimiters), Templates.endToken(b.delimiters)) //
+					.setPostMapper(b.mapper) //
+					.parse();
+		}
+	}
+
+	@Benchmark
+	public String evalString() throws InvalidExpression {
+		return compiled.eval(mapper);
+	}
+
+	@Benchmark
+	public StringBuilder evalStringBuilder(final Sinks s) throws InvalidExpression {
+		s.sb.setLength(0);
+		compiled.eval(s.sb, mapper);
+		return s.sb;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream evalOutputStream(final Sinks s) throws InvalidExpression, IOException {
+		s.os.reset();
+		compiled.eval(s.os, UTF8, mapper);
+		return s.os;
+	}
+
+	@Benchmark
+	public CharArrayWriter evalPrintWriter(final Sinks s) throws InvalidExpression {
+		s.cw.reset();
+		compiled.eval(s.pw, mapper);
+		return s.cw;
+	}
+
+	@Benchmark
+	public String evalMapExpression(final Sinks s) throws InvalidExpression {
+		return s.legacy.eval().get();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.javastack.mapexpression.CompiledExpression;
+import org.javastack.mapexpression.InvalidExpression;
+import org.javastack.mapexpression.mapper.MapMapper;
+import org.javastack.mapexpression.mapper.Mapper;
+import org.javastack.mapexpression.mapper.MultiMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Eval cost of MultiMapper chains, values are found in the last mapper of the chain (worst case), plain or
+ * {@link MultiMapper#freeze() frozen}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiMapperBenchmark {
+	@Param({ "1", "2", "4", "6" })
+	public int depth;
+
+	@Param({ "true", "false" })
+	public boolean found;
+
+	@Param({ "false", "true" })
+	public boolean frozen;
+
+	private CompiledExpression compiled;
+	private Mapper mapper;
+	private final StringBuilder sb = new StringBuilder();
+
+	@Setup
+	public void setup() throws InvalidExpression {
+		compiled = CompiledExpression.compile(Templates.generate(1024, 16, "${|}"), "${", "}", null);
+		final MultiMapper chain = new MultiMapper();
+		for (int i = 1; i < depth; i++) {
+			chain.add(new MapMapper(Collections.singletonMap("unused" + i, "x")));
+		}
+		chain.add(new MapMapper(found ? Templates.values("value-") : Collections.<String, String> emptyMap()));
+		mapper = (frozen ? chain.freeze() : chain);
+	}
+
+	@Benchmark
+	public StringBuilder eval() throws InvalidExpression {
+		sb.setLength(0);
+		compiled.eval(sb, mapper);
+		return sb;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.javastack.mapexpression.CompiledExpression;
+import org.javastack.mapexpression.InvalidExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse (compile) throughput
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+	@Param({ "64", "4096", "65536" })
+	public int size;
+
+	@Param({ "1", "16", "128" })
+	public int density;
+
+	@Param({ "${|}", "{{|}}", "###|###" })
+	public String delimiters;
+
+	private String template;
+	private String beginToken;
+	private String endToken;
+
+	@Setup
+	public void setup() {
+		template = Templates.generate(size, density, delimiters);
+		beginToken = Templates.beginToken(delimiters);
+		endToken = Templates.endToken(delimiters);
+	}
+
+	@Benchmark
+	public CompiledExpression parse() throws InvalidExpression {
+		return CompiledExpression.compile(template, beginToken, endToken, null);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Synthetic templates for benchmarks
+ */
+final class Templates {
+	static final int DISTINCT_NAMES = 16;
+	private static final String FILLER = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ";
+
+	private Templates() {
+	}
+
+	/**
+	 * Generate template
+	 * 
+	 * @param size approximate length in chars
+	 * @param density placeholders per 1024 chars (at least one placeholder is generated)
+	 * @param delimiters begin and end token separated by &quot;|&quot; (like &quot;${|}&quot;)
+	 * @return template
+	 */
+	static String generate(final int size, final int density, final String delimiters) {
+		final String beginToken = beginToken(delimiters);
+		final String endToken = endToken(delimiters);
+		final int placeholders = Math.max(1, (int) ((long) size * density / 1024));
+		final int literalLen = Math.max(1, size / placeholders);
+		final StringBuilder sb = new StringBuilder(size + 64);
+		for (int i = 0; i < placeholders; i++) {
+			final int mark = sb.length();
+			while ((sb.length() - mark) < literalLen) {
+				sb.append(FILLER, 0, Math.min(FILLER.length(), literalLen - (sb.length() - mark)));
+			}
+			sb.append(beginToken).append(name(i)).append(endToken);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Values for generated names
+	 * 
+	 * @param prefix for values
+	 * @return map
+	 */
+	static Map<String, String> values(final String prefix) {
+		final HashMap<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < DISTINCT_NAMES; i++) {
+			map.put(name(i), prefix + i);
+		}
+		return map;
+	}
+
+	static String name(final int i) {
+		return "var" + (i % DISTINCT_NAMES);
+	}
+
+	static String beginToken(final String delimiters) {
+		return delimiters.substring(0, delimiters.indexOf('|'));
+	}
+
+	static String endToken(final String delimiters) {
+		return delimiters.substring(delimiters.indexOf('|') + 1);
+	}
+}
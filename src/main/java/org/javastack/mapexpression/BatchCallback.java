@@ -0,0 +1,11 @@
+package org.javastack.mapexpression;
+
+public interface BatchCallback {
+	/**
+	 * Write Evaled Data of a row
+	 * 
+	 * @param row index of row in batch
+	 * @param data to write (only valid during this call, buffer is reused for next row)
+	 */
+	void writeEvaled(final int row, final CharSequence data);
+}
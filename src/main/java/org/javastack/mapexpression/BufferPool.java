@@ -0,0 +1,37 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+/**
+ * Pool of StringBuilder used to render String results
+ *
+ * @see ThreadLocalBufferPool
+ */
+public interface BufferPool {
+	/**
+	 * Get empty buffer
+	 * 
+	 * @param capacity minimum capacity (estimated)
+	 * @return buffer
+	 */
+	public StringBuilder acquire(final int capacity);
+
+	/**
+	 * Return buffer to pool, it must not be used after release
+	 * 
+	 * @param buffer acquired from this pool
+	 */
+	public void release(final StringBuilder buffer);
+}
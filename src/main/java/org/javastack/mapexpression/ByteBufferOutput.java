@@ -0,0 +1,95 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.javastack.mapexpression.mapper.ValueOutput;
+
+/**
+ * ValueOutput encoding to ByteBuffer. With ASCII compatible charsets integers and booleans are written
+ * as ASCII bytes directly, other values go through {@link ValueEncoder}.
+ */
+final class ByteBufferOutput implements ValueOutput {
+	private static final byte[] LONG_MIN = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+	private final ByteBuffer out;
+	private final ValueEncoder encoder;
+	private final boolean ascii;
+
+	ByteBufferOutput(final ByteBuffer out, final ValueEncoder encoder, final boolean ascii) {
+		this.out = out;
+		this.encoder = encoder;
+		this.ascii = ascii;
+	}
+
+	@Override
+	public void append(final CharSequence value) {
+		encoder.encode(value, 0, value.length(), out);
+	}
+
+	@Override
+	public void append(long value) {
+		if (!ascii) {
+			append(String.valueOf(value));
+			return;
+		}
+		if (value == Long.MIN_VALUE) {
+			out.put(LONG_MIN);
+			return;
+		}
+		final boolean negative = (value < 0);
+		if (negative)
+			value = -value;
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		final int len = (negative ? digits + 1 : digits);
+		if (out.remaining() < len)
+			throw new BufferOverflowException();
+		final int pos = out.position();
+		if (negative)
+			out.put(pos, (byte) '-');
+		for (int i = pos + len - 1; i >= pos + len - digits; i--) {
+			out.put(i, (byte) ('0' + (value % 10)));
+			value /= 10;
+		}
+		out.position(pos + len);
+	}
+
+	@Override
+	public void append(final int value) {
+		append((long) value);
+	}
+
+	@Override
+	public void append(final double value) {
+		append(String.valueOf(value));
+	}
+
+	@Override
+	public void append(final boolean value) {
+		if (!ascii) {
+			append(String.valueOf(value));
+			return;
+		}
+		out.put(value ? TRUE : FALSE);
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+/**
+ * Immutable options of {@link CompiledExpression#compile(String, CompileOptions,
+ * org.javastack.mapexpression.mapper.Mapper)}, <code>with</code> methods return a modified copy.
+ *
+ * @threadSafe true
+ */
+public final class CompileOptions {
+	/**
+	 * Delimiters ${ }, no escape, no inline defaults, missing values output the name
+	 */
+	public static final CompileOptions DEFAULT = new CompileOptions("${", "}", null, null,
+			MissingPolicy.KEEP_NAME);
+
+	private final String beginToken;
+	private final String endToken;
+	private final String escape;
+	private final String defaultSeparator;
+	private final MissingPolicy missingPolicy;
+
+	private CompileOptions(final String beginToken, final String endToken, final String escape,
+			final String defaultSeparator, final MissingPolicy missingPolicy) {
+		this.beginToken = beginToken;
+		this.endToken = endToken;
+		this.escape = escape;
+		this.defaultSeparator = defaultSeparator;
+		this.missingPolicy = missingPolicy;
+	}
+
+	/**
+	 * Set delimiters
+	 *
+	 * @param beginToken (default &quot;${&quot;)
+	 * @param endToken (default &quot;}&quot;)
+	 * @return modified copy
+	 */
+	public CompileOptions withDelimiters(final String beginToken, final String endToken) {
+		return new CompileOptions(beginToken, endToken, escape, defaultSeparator, missingPolicy);
+	}
+
+	/**
+	 * Set escape sequence of begin delimiter, like &quot;$&quot; (<code>$${x}</code>) or &quot;\\&quot;
+	 * (<code>\${x}</code>) for literal <code>${x}</code>. The escape is removed and the delimiter is kept
+	 * in the adjacent literal, so escapes cost nothing on eval. A doubled escape right before a delimiter
+	 * is a literal escape (<code>\\${x}</code> is <code>\</code> followed by placeholder), escapes
+	 * elsewhere are kept as is.
+	 *
+	 * @param escape sequence or null to disable (default)
+	 * @return modified copy
+	 */
+	public CompileOptions withEscape(final String escape) {
+		if ((escape != null) && escape.isEmpty())
+			throw new IllegalArgumentException("Invalid escape (empty)");
+		return new CompileOptions(beginToken, endToken, escape, defaultSeparator, missingPolicy);
+	}
+
+	/**
+	 * Set separator of inline default values, like <code>${name:default}</code> with &quot;:&quot;. The
+	 * name ends at first separator, default value is used when name is not found.
+	 *
+	 * @param defaultSeparator separator or null to disable inline defaults (default)
+	 * @return modified copy
+	 */
+	public CompileOptions withDefaultSeparator(final String defaultSeparator) {
+		if ((defaultSeparator != null) && defaultSeparator.isEmpty())
+			throw new IllegalArgumentException("Invalid defaultSeparator (empty)");
+		return new CompileOptions(beginToken, endToken, escape, defaultSeparator, missingPolicy);
+	}
+
+	/**
+	 * Set output of placeholders without value and without inline default
+	 *
+	 * @param missingPolicy (default {@link MissingPolicy#KEEP_NAME})
+	 * @return modified copy
+	 */
+	public CompileOptions withMissingPolicy(final MissingPolicy missingPolicy) {
+		if (missingPolicy == null)
+			throw new IllegalArgumentException("Invalid missingPolicy (null)");
+		return new CompileOptions(beginToken, endToken, escape, defaultSeparator, missingPolicy);
+	}
+
+	public String getBeginToken() {
+		return beginToken;
+	}
+
+	public String getEndToken() {
+		return endToken;
+	}
+
+	public String getEscape() {
+		return escape;
+	}
+
+	public String getDefaultSeparator() {
+		return defaultSeparator;
+	}
+
+	public MissingPolicy getMissingPolicy() {
+		return missingPolicy;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = String.valueOf(beginToken).hashCode();
+		h = 31 * h + String.valueOf(endToken).hashCode();
+		h = 31 * h + String.valueOf(escape).hashCode();
+		h = 31 * h + String.valueOf(defaultSeparator).hashCode();
+		h = 31 * h + missingPolicy.hashCode();
+		return h;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CompileOptions))
+			return false;
+		final CompileOptions o = (CompileOptions) obj;
+		return equals(beginToken, o.beginToken) && equals(endToken, o.endToken) && equals(escape, o.escape)
+				&& equals(defaultSeparator, o.defaultSeparator) && (missingPolicy == o.missingPolicy);
+	}
+
+	private static final boolean equals(final String a, final String b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [beginToken=" + beginToken + " endToken=" + endToken + " escape=" + escape
+				+ " defaultSeparator=" + defaultSeparator + " missingPolicy=" + missingPolicy + "]";
+	}
+}
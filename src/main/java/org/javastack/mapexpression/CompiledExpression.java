@@ -0,0 +1,1347 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.javastack.mapexpression.mapper.IndexedMapper;
+import org.javastack.mapexpression.mapper.Mapper;
+import org.javastack.mapexpression.mapper.ValueMapper;
+
+/**
+ * Parsed expression, preMapper already applied. Tokens and names are immutable; only caches and hints are
+ * updated by evals (encoded forms, generated renderer, eval counter and estimated value length), racy but
+ * safe to publish. Can be shared between threads and evaluated concurrently with a caller-supplied
+ * {@link Mapper}.
+ *
+ * @see MapExpression#compile()
+ * @threadSafe true
+ */
+public final class CompiledExpression {
+	static final CompiledExpression EMPTY = new CompiledExpression("", new Token[0], new String[0],
+			MissingPolicy.KEEP_NAME);
+	/**
+	 * Maximum number of Charsets with retained encoded form
+	 */
+	private static final int MAX_ENCODED = 4;
+	/**
+	 * Minimum rows rendered by each task in parallel batches
+	 */
+	private static final int BATCH_CHUNK = 256;
+
+	private final String expression;
+	private final Token[] tokens;
+	/**
+	 * Distinct placeholder names, index is the slot of the placeholder
+	 */
+	private final String[] names;
+	private final int placeholders;
+	/**
+	 * Total length of literals
+	 */
+	private final int literalLength;
+	/**
+	 * Moving average of total length of values per eval (racy, best effort), starts as length of names
+	 */
+	private int valueLength;
+	private final MissingPolicy missingPolicy;
+	/**
+	 * Encoded forms by Charset, most recently created first (copy on write)
+	 */
+	private volatile EncodedExpression[] encoded = new EncodedExpression[0];
+	/**
+	 * Generated renderer (null until eval count reaches threshold or if not possible)
+	 */
+	private volatile SlotRenderer renderer = null;
+	/**
+	 * First placeholder Token of each slot, set before renderer
+	 */
+	private Token[] slotTokens = null;
+	/**
+	 * Evals before trying code generation (racy), negative once tried
+	 */
+	private int evals = 0;
+
+	private CompiledExpression(final String expression, final Token[] tokens, final String[] names,
+			final MissingPolicy missingPolicy) {
+		this.expression = expression;
+		this.tokens = tokens;
+		this.names = names;
+		this.missingPolicy = missingPolicy;
+		int placeholders = 0, literalLength = 0, valueLength = 0;
+		for (final Token tok : tokens) {
+			if (tok.isString) {
+				literalLength += tok.end - tok.begin;
+			} else {
+				placeholders++;
+				valueLength += tok.token.length();
+			}
+		}
+		this.placeholders = placeholders;
+		this.literalLength = literalLength;
+		this.valueLength = valueLength;
+	}
+
+	/**
+	 * Parse expression, jumping between delimiters with {@link String#indexOf(String, int)}. Partial prefixes
+	 * are literals (<code>$${x}</code> is literal <code>$</code> followed by placeholder), and overlapping
+	 * begin delimiters start at the rightmost one (with <code>{{</code>, <code>{{{x}}</code> is literal
+	 * <code>{</code> followed by placeholder <code>x</code>)
+	 *
+	 * @param expression to parse
+	 * @param beginToken delimiter (like &quot;${&quot;)
+	 * @param endToken delimiter (like &quot;}&quot;)
+	 * @param preMapper mapper for parameters applied on parse (can be null)
+	 * @return compiled expression
+	 * @throws InvalidExpression if expression is wrong
+	 */
+	public static CompiledExpression compile(final String expression, final String beginToken,
+			final String endToken, final Mapper preMapper) throws InvalidExpression {
+		return compile(expression, CompileOptions.DEFAULT.withDelimiters(beginToken, endToken), preMapper);
+	}
+
+	/**
+	 * Parse expression with options, inline defaults are split from names here so eval only looks up names
+	 *
+	 * @param expression to parse
+	 * @param options delimiters, default separator and missing policy
+	 * @param preMapper mapper for parameters applied on parse (can be null)
+	 * @return compiled expression
+	 * @throws InvalidExpression if expression is wrong
+	 * @see #compile(String, String, String, Mapper)
+	 */
+	public static CompiledExpression compile(final String expression, final CompileOptions options,
+			final Mapper preMapper) throws InvalidExpression {
+		if (expression == null)
+			throw new InvalidExpression("Null Expression", 0);
+		final String beginToken = options.getBeginToken();
+		final String endToken = options.getEndToken();
+		final String separator = options.getDefaultSeparator();
+		final String escape = options.getEscape();
+		if (beginToken.isEmpty() || endToken.isEmpty())
+			throw new IllegalArgumentException("Invalid delimiters (empty)");
+		if (expression.isEmpty())
+			return new CompiledExpression(expression, new Token[0], new String[0], //
+					options.getMissingPolicy());
+		final ArrayList<Token> tokens = new ArrayList<Token>();
+		final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+		// Find all ${tag}
+		final int len = expression.length();
+		final int beginTokenLen = beginToken.length();
+		final int endTokenLen = endToken.length();
+		final int escapeLen = ((escape == null) ? 0 : escape.length());
+		// Start of pending literal, and pending literal with escapes removed (null if there are none)
+		int last = 0, literal = 0;
+		StringBuilder merged = null;
+		while (last < len) {
+			int begin = expression.indexOf(beginToken, last);
+			if (begin < 0)
+				break;
+			final int escapes = ((escape == null) ? 0 : countEscapes(expression, escape, begin, last));
+			if (escapes > 0) {
+				// Each pair is a literal escape, an odd one escapes the delimiter
+				if (merged == null)
+					merged = new StringBuilder();
+				merged.append(expression, literal, begin - (escapes * escapeLen));
+				for (int i = escapes >> 1; i > 0; i--) {
+					merged.append(escape);
+				}
+				literal = begin;
+				if ((escapes & 1) != 0) {
+					last = begin + beginTokenLen;
+					continue;
+				}
+			}
+			// Overlapping begin delimiters (like {{{ with {{), placeholder starts at the rightmost
+			while (expression.startsWith(beginToken, begin + 1)) {
+				begin++;
+			}
+			final int nameBegin = begin + beginTokenLen;
+			final int nameEnd = expression.indexOf(endToken, nameBegin);
+			if (nameEnd < 0) {
+				throw new InvalidExpression("Not well ended expression: " + //
+						expression.substring(nameBegin, len), begin);
+			}
+			addLiteral(tokens, expression, literal, begin, merged);
+			merged = null;
+			final int sep = ((separator == null) ? -1 : indexOf(expression, separator, nameBegin, nameEnd));
+			if (sep >= 0) {
+				addPlaceholder(tokens, slots, mapTokenPre(expression.substring(nameBegin, sep), nameBegin,
+						preMapper), expression.substring(sep + separator.length(), nameEnd));
+			} else {
+				addPlaceholder(tokens, slots, mapTokenPre(expression.substring(nameBegin, nameEnd), nameBegin,
+						preMapper), null);
+			}
+			last = literal = nameEnd + endTokenLen;
+		}
+		addLiteral(tokens, expression, literal, len, merged);
+		return new CompiledExpression(expression, tokens.toArray(new Token[tokens.size()]), //
+				slots.keySet().toArray(new String[slots.size()]), options.getMissingPolicy());
+	}
+
+	/**
+	 * Find token fully contained in <code>[from, to)</code>, scanning only that range
+	 */
+	private static final int indexOf(final String s, final String token, final int from, final int to) {
+		final char first = token.charAt(0);
+		final int tokenLen = token.length();
+		final int max = to - tokenLen;
+		for (int i = from; i <= max; i++) {
+			if ((s.charAt(i) == first) && s.regionMatches(i, token, 0, tokenLen))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Count consecutive escape sequences right before <code>offset</code>, only chars not yet consumed (from
+	 * <code>last</code>) can be part of them
+	 */
+	private static final int countEscapes(final String expression, final String escape, final int offset,
+			final int last) {
+		final int escapeLen = escape.length();
+		int count = 0;
+		for (int i = offset - escapeLen; (i >= last) && expression.startsWith(escape, i); i -= escapeLen) {
+			count++;
+		}
+		return count;
+	}
+
+	private static final void addPlaceholder(final ArrayList<Token> tokens,
+			final LinkedHashMap<String, Integer> slots, final String name, final String defaultValue) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = Integer.valueOf(slots.size());
+			slots.put(name, slot);
+		}
+		tokens.add(Token.placeholder(name, slot.intValue(), defaultValue));
+	}
+
+	private static final void addLiteral(final ArrayList<Token> tokens, final String expression,
+			final int begin, final int end, final StringBuilder merged) {
+		if (merged == null) {
+			if (begin < end)
+				tokens.add(Token.literal(expression, begin, end));
+			return;
+		}
+		merged.append(expression, begin, end);
+		if (merged.length() > 0)
+			tokens.add(Token.literal(merged.toString(), 0, merged.length()));
+	}
+
+	/**
+	 * Copy with Strings (expression, names, defaults and literals with escapes removed) replaced by equal
+	 * ones from pool, new Strings are added to pool. Other literals stay as ranges of the interned
+	 * expression, so the text of a template is held once.
+	 *
+	 * @param pool of Strings
+	 * @return interned copy
+	 */
+	CompiledExpression intern(final HashMap<String, String> pool) {
+		final String expression = intern(pool, this.expression);
+		final Token[] tokens = new Token[this.tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = this.tokens[i];
+			if (tok.isString) {
+				if (tok.token == this.expression) {
+					tokens[i] = Token.literal(expression, tok.begin, tok.end);
+				} else {
+					final String literal = intern(pool, tok.literal());
+					tokens[i] = Token.literal(literal, 0, literal.length());
+				}
+			} else {
+				tokens[i] = Token.placeholder(intern(pool, tok.token), tok.slot, //
+						intern(pool, tok.defaultValue));
+			}
+		}
+		final String[] names = new String[this.names.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = intern(pool, this.names[i]);
+		}
+		return new CompiledExpression(expression, tokens, names, missingPolicy);
+	}
+
+	private static final String intern(final HashMap<String, String> pool, final String s) {
+		if (s == null)
+			return null;
+		final String prev = pool.get(s);
+		if (prev != null)
+			return prev;
+		pool.put(s, s);
+		return s;
+	}
+
+	/**
+	 * Write compiled form (preMapper already applied, delimiters are not needed), literals of expression are
+	 * written as ranges
+	 *
+	 * @param out destination
+	 * @param strings table of the stream
+	 * @throws IOException if io fail
+	 * @see #readFrom(DataInputStream, StringTable)
+	 */
+	void writeTo(final DataOutputStream out, final StringTable strings) throws IOException {
+		strings.write(out, expression);
+		out.writeByte(missingPolicy.ordinal());
+		out.writeInt(tokens.length);
+		for (final Token tok : tokens) {
+			if (tok.isString && (tok.token == expression)) {
+				out.writeByte(0);
+				out.writeInt(tok.begin);
+				out.writeInt(tok.end);
+			} else if (tok.isString) {
+				out.writeByte(3);
+				strings.write(out, tok.literal());
+			} else if (tok.defaultValue == null) {
+				out.writeByte(1);
+				strings.write(out, tok.token);
+			} else {
+				out.writeByte(2);
+				strings.write(out, tok.token);
+				strings.write(out, tok.defaultValue);
+			}
+		}
+	}
+
+	/**
+	 * Read compiled form written by {@link #writeTo(DataOutputStream, StringTable)}
+	 *
+	 * @param in source
+	 * @param strings table of the stream
+	 * @return compiled expression
+	 * @throws IOException if io fail or data is invalid
+	 */
+	static CompiledExpression readFrom(final DataInputStream in, final StringTable strings)
+			throws IOException {
+		final String expression = strings.read(in);
+		final int policy = in.readUnsignedByte();
+		if (policy >= MissingPolicy.values().length)
+			throw new IOException("Invalid missing policy: " + policy);
+		final int count = in.readInt();
+		if (count < 0)
+			throw new IOException("Invalid token count: " + count);
+		final ArrayList<Token> tokens = new ArrayList<Token>(Math.min(count, 1024));
+		final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < count; i++) {
+			final int type = in.readUnsignedByte();
+			switch (type) {
+				case 0: {
+					final int begin = in.readInt();
+					final int end = in.readInt();
+					if ((begin < 0) || (begin >= end) || (end > expression.length()))
+						throw new IOException("Invalid literal range: " + begin + "-" + end);
+					tokens.add(Token.literal(expression, begin, end));
+					break;
+				}
+				case 1:
+					addPlaceholder(tokens, slots, strings.read(in), null);
+					break;
+				case 2: {
+					final String name = strings.read(in);
+					addPlaceholder(tokens, slots, name, strings.read(in));
+					break;
+				}
+				case 3: {
+					final String literal = strings.read(in);
+					tokens.add(Token.literal(literal, 0, literal.length()));
+					break;
+				}
+				default:
+					throw new IOException("Invalid token type: " + type);
+			}
+		}
+		return new CompiledExpression(expression, tokens.toArray(new Token[tokens.size()]), //
+				slots.keySet().toArray(new String[slots.size()]), MissingPolicy.values()[policy]);
+	}
+
+	/**
+	 * Get source Expression
+	 *
+	 * @return expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Get distinct placeholder names (after preMapper), in order of first appearance. This is the order of
+	 * values in array-backed rows of {@link #evalBatch(String[][], BatchCallback)}
+	 *
+	 * @return names
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	/**
+	 * Evaluate expression
+	 *
+	 * @param mapper for parameters (can be null)
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public String eval(final Mapper mapper) throws InvalidExpression {
+		return eval(mapper, ThreadLocalBufferPool.getInstance());
+	}
+
+	/**
+	 * Evaluate expression rendering in a buffer from pool
+	 *
+	 * @param mapper for parameters (can be null)
+	 * @param pool of buffers
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public String eval(final Mapper mapper, final BufferPool pool) throws InvalidExpression {
+		final StringBuilder out = pool.acquire(estimatedSize());
+		try {
+			eval(out, mapper);
+			return out.toString();
+		} finally {
+			pool.release(out);
+		}
+	}
+
+	/**
+	 * Evaluate expression without copying the result, for callers that write it somewhere else right away.
+	 * Result is a buffer of {@link ThreadLocalBufferPool#getInstance()}, only valid until next eval in this
+	 * thread.
+	 *
+	 * @param mapper for parameters (can be null)
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public CharSequence evalChars(final Mapper mapper) throws InvalidExpression {
+		final BufferPool pool = ThreadLocalBufferPool.getInstance();
+		final StringBuilder out = pool.acquire(estimatedSize());
+		try {
+			eval(out, mapper);
+		} finally {
+			// Thread-confined pool, the buffer is not acquired again until next eval in this thread
+			pool.release(out);
+		}
+		return out;
+	}
+
+	/**
+	 * Get estimated length of evaluated expression: length of literals plus moving average of length of
+	 * values seen by StringBuilder/String evals
+	 *
+	 * @return length in chars
+	 */
+	public int estimatedSize() {
+		final long size = (long) literalLength + estimatedValueLength();
+		return (int) Math.min(size, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Get moving average of total length of values per eval
+	 *
+	 * @return length in chars
+	 */
+	final int estimatedValueLength() {
+		return Math.max(0, valueLength);
+	}
+
+	/**
+	 * Update moving average of values length (weight of new sample is 1/8)
+	 *
+	 * @param outputLength length of an evaluated expression
+	 */
+	final void observe(final int outputLength) {
+		final int v = valueLength;
+		final int diff = outputLength - literalLength - v;
+		// Skip store once converged, shared instances would bounce the cache line of read-mostly fields
+		if (diff == 0)
+			return;
+		// Round away from zero so the average reaches the sample
+		valueLength = v + ((diff > 0) ? ((diff + 7) >> 3) : (diff >> 3));
+	}
+
+	/**
+	 * Evaluate expression and write to OutputStream using specified Charset
+	 *
+	 * @param out destination
+	 * @param charset used for encoding
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final OutputStream out, final Charset charset, final Mapper mapper)
+			throws InvalidExpression, IOException {
+		encode(charset).eval(out, mapper);
+	}
+
+	/**
+	 * Get expression with literals pre-encoded in specified Charset (up to {@value #MAX_ENCODED} Charsets are
+	 * retained)
+	 *
+	 * @param charset used for encoding
+	 * @return encoded expression
+	 */
+	public EncodedExpression encode(final Charset charset) {
+		final EncodedExpression[] encoded = this.encoded;
+		for (final EncodedExpression e : encoded) {
+			if (e.getCharset().equals(charset))
+				return e;
+		}
+		final Token[] tokens = this.tokens;
+		final byte[][] literals = new byte[tokens.length][];
+		final String[] names = new String[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				literals[i] = tok.literal().getBytes(charset);
+			} else {
+				names[i] = tok.token;
+			}
+		}
+		final EncodedExpression e = new EncodedExpression(this, charset, literals, names);
+		// Racy: a concurrent miss may be lost, it is encoded again on next use
+		final EncodedExpression[] next = new EncodedExpression[Math.min(encoded.length + 1, MAX_ENCODED)];
+		next[0] = e;
+		System.arraycopy(encoded, 0, next, 1, next.length - 1);
+		this.encoded = next;
+		return e;
+	}
+
+	/**
+	 * Evaluate expression and write to Appendable, literals are appended from expression without copies
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final Appendable out, final Mapper mapper) throws InvalidExpression, IOException {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else {
+				out.append(value(tok, mapper, values));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to Writer
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final Writer out, final Mapper mapper) throws InvalidExpression, IOException {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.write(tok.token, tok.begin, tok.end - tok.begin);
+			} else {
+				out.write(value(tok, mapper, values));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to CharBuffer
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws java.nio.BufferOverflowException if there is insufficient space in destination
+	 */
+	public void eval(final CharBuffer out, final Mapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.put(tok.token, tok.begin, tok.end);
+			} else {
+				out.put(value(tok, mapper, values));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to PrintWriter
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void eval(final PrintWriter out, final Mapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.write(tok.token, tok.begin, tok.end - tok.begin);
+			} else {
+				out.print(value(tok, mapper, values));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to PrintStream
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void eval(final PrintStream out, final Mapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			out.print(evalMapToken(tokens[i], mapper, values));
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to StringBuilder
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void eval(final StringBuilder out, final Mapper mapper) throws InvalidExpression {
+		final int begin = out.length();
+		out.ensureCapacity(begin + estimatedSize());
+		final SlotRenderer renderer = renderer();
+		if (renderer != null) {
+			renderer.render(out, resolveSlots(mapper));
+		} else {
+			final String[] values = resolveRepeated(mapper);
+			if (values != null) {
+				evalSlots(out, values);
+			} else {
+				eval(out, 0, tokens.length, mapper);
+			}
+		}
+		observe(out.length() - begin);
+	}
+
+	/**
+	 * Evaluate expression with ValueMapper and write to StringBuilder, primitive values are appended
+	 * without boxing or intermediate Strings
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void eval(final StringBuilder out, final ValueMapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		final StringBuilderOutput vout = new StringBuilderOutput(out);
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else if ((mapper == null) || !mapper.write(tok.token, vout)) {
+				out.append(missing(tok));
+			}
+		}
+	}
+
+	/**
+	 * Get generated renderer, generating it when eval count reaches threshold
+	 *
+	 * @return renderer or null to use interpreter
+	 * @see RendererGenerator
+	 */
+	private final SlotRenderer renderer() {
+		final SlotRenderer r = renderer;
+		if ((r != null) || !RendererGenerator.ENABLED || (evals < 0)
+				|| (++evals < RendererGenerator.THRESHOLD))
+			return r;
+		evals = -1;
+		return generateRenderer();
+	}
+
+	/**
+	 * Generate renderer now, used by evals to StringBuilder from then on (even if code generation is not
+	 * enabled)
+	 *
+	 * @return renderer or null if expression can not be generated
+	 */
+	final SlotRenderer generateRenderer() {
+		if (placeholders == 0)
+			return null;
+		final Token[] tokens = this.tokens;
+		final Token[] slotTokens = new Token[names.length];
+		final Object[] parts = new Object[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				parts[i] = tok.literal();
+				continue;
+			}
+			final Token first = slotTokens[tok.slot];
+			if (first == null) {
+				slotTokens[tok.slot] = tok;
+			} else if ((first.defaultValue == null) ? (tok.defaultValue != null) //
+					: !first.defaultValue.equals(tok.defaultValue)) {
+				// Same name with different inline defaults, values by slot are not enough
+				return null;
+			}
+			parts[i] = Integer.valueOf(tok.slot);
+		}
+		final SlotRenderer g = RendererGenerator.generate(parts);
+		if (g != null) {
+			this.slotTokens = slotTokens;
+			renderer = g;
+		}
+		return g;
+	}
+
+	/**
+	 * Map each distinct name once, missing values are resolved like first placeholder of the slot
+	 *
+	 * @param mapper for parameters (can be null)
+	 * @return output values by slot
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	private final String[] resolveSlots(final Mapper mapper) throws InvalidExpression {
+		final String[] names = this.names;
+		final Token[] slotTokens = this.slotTokens;
+		final String[] values = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			final String value = mapValue(names[i], mapper);
+			values[i] = (value != null) ? value : missing(slotTokens[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Get number of tokens (literals and placeholders)
+	 *
+	 * @return count
+	 */
+	int getTokenCount() {
+		return tokens.length;
+	}
+
+	/**
+	 * Get number of distinct placeholder names
+	 *
+	 * @return count
+	 */
+	int getSlotCount() {
+		return names.length;
+	}
+
+	/**
+	 * Get placeholder name of slot
+	 *
+	 * @param slot index
+	 * @return name
+	 */
+	String getName(final int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * Get number of placeholders (including repeated names)
+	 *
+	 * @return count
+	 */
+	int getPlaceholderCount() {
+		return placeholders;
+	}
+
+	/**
+	 * Evaluate a range of tokens and write to StringBuilder
+	 *
+	 * @param out destination
+	 * @param from first token (inclusive)
+	 * @param to last token (exclusive)
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	void eval(final StringBuilder out, final int from, final int to, final Mapper mapper)
+			throws InvalidExpression {
+		eval(out, from, to, mapper, null);
+	}
+
+	/**
+	 * Evaluate a range of tokens and write to StringBuilder
+	 *
+	 * @param out destination
+	 * @param from first token (inclusive)
+	 * @param to last token (exclusive)
+	 * @param mapper for parameters (can be null)
+	 * @param values by slot from {@link #mapSlot(int, Mapper)} (null to map each placeholder)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	void eval(final StringBuilder out, final int from, final int to, final Mapper mapper,
+			final String[] values) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		for (int i = from; i < to; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else {
+				out.append(value(tok, mapper, values));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression and invoke OutputCallback
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 *
+	 * @see OutputCallback#writeEvaled(String)
+	 */
+	public void eval(final OutputCallback out, final Mapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		final String[] values = resolveRepeated(mapper);
+		for (int i = 0; i < tokens.length; i++) {
+			out.writeEvaled(evalMapToken(tokens[i], mapper, values));
+		}
+	}
+
+	/**
+	 * Evaluate expression with values by position
+	 *
+	 * @param values in order of {@link #getNames()} (null values are not mapped)
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public String evalIndexed(final String[] values) throws InvalidExpression {
+		final StringBuilder out = new StringBuilder();
+		evalIndexed(out, values);
+		return out.toString();
+	}
+
+	/**
+	 * Evaluate expression with values by position and write to StringBuilder
+	 *
+	 * @param out destination
+	 * @param values in order of {@link #getNames()} (null values are not mapped)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void evalIndexed(final StringBuilder out, final String[] values) throws InvalidExpression {
+		if (values.length < names.length)
+			throw new IllegalArgumentException("Invalid values (expected " + names.length + ")");
+		evalSlots(out, values);
+	}
+
+	/**
+	 * Evaluate expression with values by position and write to StringBuilder, values are converted with
+	 * {@link String#valueOf(Object)}
+	 *
+	 * @param out destination
+	 * @param values in order of {@link #getNames()} (null values are not mapped)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void evalIndexed(final StringBuilder out, final Object[] values) throws InvalidExpression {
+		if (values.length < names.length)
+			throw new IllegalArgumentException("Invalid values (expected " + names.length + ")");
+		final Token[] tokens = this.tokens;
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else {
+				final Object value = values[tok.slot];
+				if (value != null) {
+					out.append(value);
+				} else {
+					out.append(missing(tok));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression with IndexedMapper and write to StringBuilder, each slot is mapped once
+	 *
+	 * @param out destination
+	 * @param mapper for parameters by slot, in order of {@link #getNames()}
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void evalIndexed(final StringBuilder out, final IndexedMapper mapper) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		if (placeholders != names.length) {
+			final String[] values = new String[names.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = mapper.map(i);
+			}
+			evalSlots(out, values);
+			return;
+		}
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else {
+				final String value = mapper.map(tok.slot);
+				out.append((value != null) ? value : missing(tok));
+			}
+		}
+	}
+
+	/**
+	 * Evaluate expression for each row, placeholders are resolved with {@link Map#get(Object)} once per
+	 * distinct name and row. The output buffer is reused between rows.
+	 *
+	 * @param rows values for parameters
+	 * @param out destination, data is only valid during callback
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void evalBatch(final Iterable<? extends Map<String, String>> rows, final BatchCallback out)
+			throws InvalidExpression {
+		final String[] names = this.names;
+		final String[] values = new String[names.length];
+		final StringBuilder sb = new StringBuilder(expression.length());
+		int row = 0;
+		for (final Map<String, String> map : rows) {
+			for (int i = 0; i < names.length; i++) {
+				values[i] = map.get(names[i]);
+			}
+			sb.setLength(0);
+			evalSlots(sb, values);
+			out.writeEvaled(row++, sb);
+		}
+	}
+
+	/**
+	 * Evaluate expression for each row of array-backed values. The output buffer is reused between rows.
+	 *
+	 * @param rows values for parameters, each row in order of {@link #getNames()} (null values are not
+	 *            mapped)
+	 * @param out destination, data is only valid during callback
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IllegalArgumentException if a row has less values than names
+	 */
+	public void evalBatch(final String[][] rows, final BatchCallback out) throws InvalidExpression {
+		checkRows(rows);
+		evalRows(new ArrayRows(rows), 0, rows.length, out);
+	}
+
+	/**
+	 * Evaluate expression for each row, rows are split in chunks rendered in parallel
+	 *
+	 * @param rows values for parameters
+	 * @param out destination, invoked concurrently from pool threads, data is only valid during callback
+	 * @param pool used for rendering
+	 * @throws InvalidExpression if expression is invalid
+	 * @see #evalBatch(Iterable, BatchCallback)
+	 */
+	public void evalBatch(final List<? extends Map<String, String>> rows, final BatchCallback out,
+			final ForkJoinPool pool) throws InvalidExpression {
+		evalParallel(new MapRows(rows, names), out, pool);
+	}
+
+	/**
+	 * Evaluate expression for each row of array-backed values, rows are split in chunks rendered in
+	 * parallel
+	 *
+	 * @param rows values for parameters, each row in order of {@link #getNames()} (null values are not
+	 *            mapped)
+	 * @param out destination, invoked concurrently from pool threads, data is only valid during callback
+	 * @param pool used for rendering
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IllegalArgumentException if a row has less values than names
+	 * @see #evalBatch(String[][], BatchCallback)
+	 */
+	public void evalBatch(final String[][] rows, final BatchCallback out, final ForkJoinPool pool)
+			throws InvalidExpression {
+		checkRows(rows);
+		evalParallel(new ArrayRows(rows), out, pool);
+	}
+
+	private final void checkRows(final String[][] rows) {
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i].length < names.length)
+				throw new IllegalArgumentException("Invalid row " + i + " (expected " + names.length
+						+ " values)");
+		}
+	}
+
+	private final void evalParallel(final Rows rows, final BatchCallback out, final ForkJoinPool pool)
+			throws InvalidExpression {
+		try {
+			pool.invoke(new BatchTask(rows, 0, rows.size(), out));
+		} catch (BatchException e) {
+			throw e.getCause();
+		}
+	}
+
+	private final void evalRows(final Rows rows, final int from, final int to, final BatchCallback out)
+			throws InvalidExpression {
+		final String[] values = new String[names.length];
+		final StringBuilder sb = new StringBuilder(expression.length());
+		for (int row = from; row < to; row++) {
+			sb.setLength(0);
+			evalSlots(sb, rows.get(row, values));
+			out.writeEvaled(row, sb);
+		}
+	}
+
+	/**
+	 * Evaluate expression with values by slot
+	 *
+	 * @param out destination
+	 * @param values by slot (null values are not mapped)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	private final void evalSlots(final StringBuilder out, final String[] values) throws InvalidExpression {
+		final Token[] tokens = this.tokens;
+		for (int i = 0; i < tokens.length; i++) {
+			final Token tok = tokens[i];
+			if (tok.isString) {
+				out.append(tok.token, tok.begin, tok.end);
+			} else {
+				final String value = values[tok.slot];
+				out.append((value != null) ? value : missing(tok));
+			}
+		}
+	}
+
+	private final String evalMapToken(final Token tok, final Mapper mapper, final String[] values)
+			throws InvalidExpression {
+		return tok.isString ? tok.literal() : value(tok, mapper, values);
+	}
+
+	private final String value(final Token tok, final Mapper mapper, final String[] values)
+			throws InvalidExpression {
+		if (values == null)
+			return mapToken(tok, mapper);
+		final String value = values[tok.slot];
+		return (value != null) ? value : missing(tok);
+	}
+
+	/**
+	 * Map placeholder (when eval() is called)
+	 *
+	 * @param tok placeholder
+	 * @param mapper for parameters (can be null)
+	 * @return value, inline default or {@link #missing(Token)}
+	 * @throws InvalidExpression if expression is wrong or value is missing with {@link MissingPolicy#FAIL}
+	 */
+	private final String mapToken(final Token tok, final Mapper mapper) throws InvalidExpression {
+		final String value = mapValue(tok.token, mapper);
+		return (value != null) ? value : missing(tok);
+	}
+
+	/**
+	 * Map placeholder by token index, used by {@link EncodedExpression}
+	 *
+	 * @param values by slot from {@link #resolveRepeated(Mapper)} (null to map the placeholder)
+	 */
+	final String mapToken(final int index, final Mapper mapper, final String[] values)
+			throws InvalidExpression {
+		return value(tokens[index], mapper, values);
+	}
+
+	/**
+	 * Check if some name is referenced by more than one placeholder
+	 */
+	final boolean hasRepeated() {
+		return placeholders != names.length;
+	}
+
+	/**
+	 * Map name of slot, used by {@link ParallelEvaluator}
+	 *
+	 * @return value or null if not found
+	 */
+	final String mapSlot(final int slot, final Mapper mapper) throws InvalidExpression {
+		return mapValue(names[slot], mapper);
+	}
+
+	/**
+	 * Output of placeholder without value by token index, used by {@link EncodedExpression}
+	 */
+	final String missing(final int index) throws InvalidExpression {
+		return missing(tokens[index]);
+	}
+
+	/**
+	 * Output of placeholder without value: inline default or as {@link MissingPolicy}
+	 *
+	 * @param tok placeholder
+	 * @return output
+	 * @throws InvalidExpression if expression is wrong or policy is {@link MissingPolicy#FAIL}
+	 */
+	private final String missing(final Token tok) throws InvalidExpression {
+		if (tok.token.isEmpty())
+			throw new InvalidExpression("Invalid name (empty)", 0);
+		if (tok.defaultValue != null)
+			return tok.defaultValue;
+		switch (missingPolicy) {
+			case EMPTY:
+				return "";
+			case FAIL:
+				throw new InvalidExpression("Missing value: " + tok.token, 0);
+			default:
+				return tok.token;
+		}
+	}
+
+	/**
+	 * Map name with mapper
+	 *
+	 * @param name
+	 * @param mapper (can be null)
+	 * @return value or null if not found
+	 * @throws InvalidExpression if name is empty
+	 */
+	private static final String mapValue(final String name, final Mapper mapper) throws InvalidExpression {
+		if (name.isEmpty())
+			throw new InvalidExpression("Invalid name (empty)", 0);
+		return (mapper == null) ? null : mapper.map(name);
+	}
+
+	/**
+	 * Map each distinct name once if some placeholder is repeated
+	 *
+	 * @param mapper for parameters (can be null)
+	 * @return values by slot (null if not found) or null if there are no repeated placeholders
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	final String[] resolveRepeated(final Mapper mapper) throws InvalidExpression {
+		if (!hasRepeated())
+			return null;
+		final String[] names = this.names;
+		final String[] values = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			values[i] = mapValue(names[i], mapper);
+		}
+		return values;
+	}
+
+	/**
+	 * Map Token Pre eval (when compile() is called)
+	 *
+	 * @param name
+	 * @param offset of name in expression
+	 * @param preMapper
+	 * @return value or name if not found
+	 * @throws InvalidExpression if expression is wrong
+	 */
+	private static final String mapTokenPre(final String name, final int offset, final Mapper preMapper)
+			throws InvalidExpression {
+		if (name.isEmpty())
+			throw new InvalidExpression("Invalid name (empty)", offset);
+		if (preMapper != null) {
+			final String value = preMapper.map(name);
+			if (value != null)
+				return value;
+		}
+		return name;
+	}
+
+	/**
+	 * Map Token Post parse (when eval() is called)
+	 *
+	 * @param name
+	 * @param mapper
+	 * @return value or name if not found
+	 * @throws InvalidExpression if expression is wrong
+	 */
+	static final String mapTokenPost(final String name, final Mapper mapper)
+			throws InvalidExpression {
+		if (name.isEmpty())
+			throw new InvalidExpression("Invalid name (empty)", 0);
+		if (mapper != null) {
+			final String value = mapper.map(name);
+			if (value != null)
+				return value;
+		}
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [expression=" + expression + "]";
+	}
+
+	/**
+	 * Rows of values by slot
+	 */
+	private static abstract class Rows {
+		abstract int size();
+
+		/**
+		 * Get values of row
+		 *
+		 * @param row index
+		 * @param scratch array that can be filled and returned
+		 * @return values by slot
+		 */
+		abstract String[] get(int row, String[] scratch);
+	}
+
+	private static final class ArrayRows extends Rows {
+		private final String[][] rows;
+
+		ArrayRows(final String[][] rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		int size() {
+			return rows.length;
+		}
+
+		@Override
+		String[] get(final int row, final String[] scratch) {
+			return rows[row];
+		}
+	}
+
+	private static final class MapRows extends Rows {
+		private final List<? extends Map<String, String>> rows;
+		private final String[] names;
+
+		MapRows(final List<? extends Map<String, String>> rows, final String[] names) {
+			this.rows = rows;
+			this.names = names;
+		}
+
+		@Override
+		int size() {
+			return rows.size();
+		}
+
+		@Override
+		String[] get(final int row, final String[] scratch) {
+			final Map<String, String> map = rows.get(row);
+			for (int i = 0; i < names.length; i++) {
+				scratch[i] = map.get(names[i]);
+			}
+			return scratch;
+		}
+	}
+
+	private final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 42L;
+		private final Rows rows;
+		private final int from;
+		private final int to;
+		private final BatchCallback out;
+
+		BatchTask(final Rows rows, final int from, final int to, final BatchCallback out) {
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.out = out;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) <= BATCH_CHUNK) {
+				try {
+					evalRows(rows, from, to, out);
+				} catch (InvalidExpression e) {
+					throw new BatchException(e);
+				}
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new BatchTask(rows, from, mid, out), new BatchTask(rows, mid, to, out));
+		}
+	}
+
+	private static final class BatchException extends RuntimeException {
+		private static final long serialVersionUID = 42L;
+
+		BatchException(final InvalidExpression cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized InvalidExpression getCause() {
+			return (InvalidExpression) super.getCause();
+		}
+	}
+
+	/**
+	 * Literal (range of source expression) or placeholder (name)
+	 */
+	private static final class Token {
+		public final String token;
+		public final int begin;
+		public final int end;
+		public final boolean isString;
+		public final int slot;
+		/**
+		 * Inline default value of placeholder (null if none)
+		 */
+		public final String defaultValue;
+		private String literal;
+
+		private Token(final String token, final int begin, final int end, final boolean isString,
+				final int slot, final String defaultValue) {
+			this.token = token;
+			this.begin = begin;
+			this.end = end;
+			this.isString = isString;
+			this.slot = slot;
+			this.defaultValue = defaultValue;
+		}
+
+		static Token literal(final String source, final int begin, final int end) {
+			return new Token(source, begin, end, true, -1, null);
+		}
+
+		static Token placeholder(final String name, final int slot, final String defaultValue) {
+			return new Token(name, 0, name.length(), false, slot, defaultValue);
+		}
+
+		/**
+		 * Get literal as String, created on first use (racy single-check, String is immutable)
+		 *
+		 * @return literal
+		 */
+		String literal() {
+			String s = literal;
+			if (s == null) {
+				s = token.substring(begin, end);
+				literal = s;
+			}
+			return s;
+		}
+
+		public String toString() {
+			return (isString ? "string=<" + literal() : "token=<" + token) + ">";
+		}
+	}
+}
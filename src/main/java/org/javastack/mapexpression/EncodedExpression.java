@@ -0,0 +1,181 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.javastack.mapexpression.mapper.Mapper;
+import org.javastack.mapexpression.mapper.ValueMapper;
+
+/**
+ * Compiled expression for a fixed Charset, literals are pre-encoded and only mapped values are encoded on
+ * eval.
+ *
+ * @see CompiledExpression#encode(Charset)
+ * @threadSafe true
+ */
+public final class EncodedExpression {
+	private static final String ASCII_CHARS = "-0123456789aeflrstu";
+
+	private final CompiledExpression compiled;
+	private final Charset charset;
+	/**
+	 * Charset encodes digits and booleans like ASCII
+	 */
+	private final boolean ascii;
+	/**
+	 * Total length of encoded literals
+	 */
+	private final int literalBytes;
+	private final float bytesPerChar;
+	/**
+	 * Encoded literal (null if placeholder)
+	 */
+	private final byte[][] literals;
+	/**
+	 * Placeholder name (null if literal)
+	 */
+	private final String[] names;
+
+	EncodedExpression(final CompiledExpression compiled, final Charset charset, final byte[][] literals,
+			final String[] names) {
+		this.compiled = compiled;
+		this.charset = charset;
+		this.ascii = Arrays.equals(ASCII_CHARS.getBytes(charset), //
+				ASCII_CHARS.getBytes(StandardCharsets.US_ASCII));
+		this.literals = literals;
+		int literalBytes = 0;
+		for (final byte[] literal : literals) {
+			if (literal != null)
+				literalBytes += literal.length;
+		}
+		this.literalBytes = literalBytes;
+		this.bytesPerChar = charset.newEncoder().averageBytesPerChar();
+		this.names = names;
+	}
+
+	/**
+	 * Get Charset used for encoding
+	 *
+	 * @return charset
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Get estimated size of evaluated expression, to allocate destination ByteBuffer: encoded literals plus
+	 * estimated length of values (see {@link CompiledExpression#estimatedSize()}) in average bytes per char
+	 *
+	 * @return size in bytes
+	 */
+	public int estimatedSize() {
+		final long values = (long) Math.ceil(compiled.estimatedValueLength() * bytesPerChar);
+		return (int) Math.min(literalBytes + values, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Evaluate expression and write to OutputStream
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final OutputStream out, final Mapper mapper) throws InvalidExpression, IOException {
+		final byte[][] literals = this.literals;
+		final String[] values = compiled.resolveRepeated(mapper);
+		final ValueEncoder encoder = ValueEncoder.acquire(charset);
+		try {
+			for (int i = 0; i < literals.length; i++) {
+				final byte[] literal = literals[i];
+				if (literal != null) {
+					out.write(literal);
+				} else {
+					final String value = compiled.mapToken(i, mapper, values);
+					encoder.write(value, 0, value.length(), out);
+				}
+			}
+		} finally {
+			encoder.release();
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to ByteBuffer
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws java.nio.BufferOverflowException if there is insufficient space in destination
+	 */
+	public void eval(final ByteBuffer out, final Mapper mapper) throws InvalidExpression {
+		final byte[][] literals = this.literals;
+		final String[] values = compiled.resolveRepeated(mapper);
+		final ValueEncoder encoder = ValueEncoder.acquire(charset);
+		try {
+			for (int i = 0; i < literals.length; i++) {
+				final byte[] literal = literals[i];
+				if (literal != null) {
+					out.put(literal);
+				} else {
+					final String value = compiled.mapToken(i, mapper, values);
+					encoder.encode(value, 0, value.length(), out);
+				}
+			}
+		} finally {
+			encoder.release();
+		}
+	}
+
+	/**
+	 * Evaluate expression with ValueMapper and write to ByteBuffer, integers and booleans are written as
+	 * bytes without intermediate Strings (when Charset is ASCII compatible)
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws java.nio.BufferOverflowException if there is insufficient space in destination
+	 */
+	public void eval(final ByteBuffer out, final ValueMapper mapper) throws InvalidExpression {
+		final byte[][] literals = this.literals;
+		final String[] names = this.names;
+		final ValueEncoder encoder = ValueEncoder.acquire(charset);
+		try {
+			final ByteBufferOutput vout = new ByteBufferOutput(out, encoder, ascii);
+			for (int i = 0; i < literals.length; i++) {
+				final byte[] literal = literals[i];
+				if (literal != null) {
+					out.put(literal);
+				} else if ((mapper == null) || !mapper.write(names[i], vout)) {
+					final String value = compiled.missing(i);
+					encoder.encode(value, 0, value.length(), out);
+				}
+			}
+		} finally {
+			encoder.release();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [charset=" + charset + "]";
+	}
+}
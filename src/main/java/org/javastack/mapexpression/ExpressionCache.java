@@ -0,0 +1,251 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Bounded cache of {@link CompiledExpression} keyed by expression, compile options and preMapper identity.
+ * Entries are split in independently locked LRU segments.
+ *
+ * @threadSafe true
+ */
+public class ExpressionCache {
+	private static final int DEFAULT_MAX_SIZE = 1024;
+	private static final int DEFAULT_CONCURRENCY = 16;
+	private static final ExpressionCache defaultCache = new ExpressionCache(DEFAULT_MAX_SIZE);
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create cache with default concurrency
+	 *
+	 * @param maxSize maximum number of entries
+	 */
+	public ExpressionCache(final int maxSize) {
+		this(maxSize, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Create cache
+	 *
+	 * @param maxSize maximum number of entries
+	 * @param concurrency number of segments (rounded down to power of 2, at most maxSize)
+	 */
+	public ExpressionCache(final int maxSize, final int concurrency) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Invalid maxSize: " + maxSize);
+		// Power of 2 not above concurrency nor maxSize, remainder of maxSize is spread so sizes add up
+		int count = 1;
+		while (((count << 1) <= concurrency) && ((count << 1) <= maxSize)) {
+			count <<= 1;
+		}
+		final int segmentSize = maxSize / count;
+		final int remainder = maxSize % count;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(segmentSize + ((i < remainder) ? 1 : 0), evictions);
+		}
+		this.segmentMask = count - 1;
+	}
+
+	/**
+	 * Get shared cache used by {@link MapExpression} convenience constructors
+	 *
+	 * @return default cache
+	 */
+	public static ExpressionCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Get compiled expression from cache, parsing if not found
+	 *
+	 * @param expression to parse
+	 * @param beginToken delimiter (like &quot;${&quot;)
+	 * @param endToken delimiter (like &quot;}&quot;)
+	 * @param preMapper mapper for parameters applied on parse (can be null)
+	 * @return compiled expression
+	 * @throws InvalidExpression if expression is wrong
+	 * @see CompiledExpression#compile(String, String, String, Mapper)
+	 */
+	public CompiledExpression get(final String expression, final String beginToken, final String endToken,
+			final Mapper preMapper) throws InvalidExpression {
+		return get(expression, CompileOptions.DEFAULT.withDelimiters(beginToken, endToken), preMapper);
+	}
+
+	/**
+	 * Get compiled expression from cache, parsing with options if not found
+	 *
+	 * @param expression to parse
+	 * @param options delimiters, default separator and missing policy
+	 * @param preMapper mapper for parameters applied on parse (can be null)
+	 * @return compiled expression
+	 * @throws InvalidExpression if expression is wrong
+	 * @see CompiledExpression#compile(String, CompileOptions, Mapper)
+	 */
+	public CompiledExpression get(final String expression, final CompileOptions options,
+			final Mapper preMapper) throws InvalidExpression {
+		if (expression == null)
+			throw new InvalidExpression("Null Expression", 0);
+		final Key key = new Key(expression, options, preMapper);
+		final Segment segment = segments[spread(key.hash) & segmentMask];
+		CompiledExpression compiled;
+		synchronized (segment) {
+			compiled = segment.get(key);
+		}
+		if (compiled != null) {
+			hits.incrementAndGet();
+			return compiled;
+		}
+		misses.incrementAndGet();
+		// Parse outside the lock, a concurrent miss may parse twice but only one is retained
+		compiled = CompiledExpression.compile(expression, options, preMapper);
+		synchronized (segment) {
+			final CompiledExpression prev = segment.get(key);
+			if (prev != null)
+				return prev;
+			segment.put(key, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Remove all entries (counters are not reset)
+	 */
+	public void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get current number of entries
+	 *
+	 * @return size
+	 */
+	public int size() {
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get number of lookups found in cache
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of lookups that required parsing
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get number of entries removed to honor size limit
+	 *
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [size=" + size() + " hits=" + getHits() + " misses=" + getMisses()
+				+ " evictions=" + getEvictions() + "]";
+	}
+
+	private static final int spread(int h) {
+		h ^= (h >>> 16);
+		h ^= (h >>> 7);
+		return h;
+	}
+
+	private static final class Segment extends LinkedHashMap<Key, CompiledExpression> {
+		private static final long serialVersionUID = 42L;
+		private final int maxSize;
+		private final AtomicLong evictions;
+
+		public Segment(final int maxSize, final AtomicLong evictions) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, CompiledExpression> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Key {
+		private final String expression;
+		private final CompileOptions options;
+		private final Mapper preMapper;
+		private final int hash;
+
+		public Key(final String expression, final CompileOptions options, final Mapper preMapper) {
+			this.expression = expression;
+			this.options = options;
+			this.preMapper = preMapper;
+			int h = expression.hashCode();
+			h = 31 * h + options.hashCode();
+			h = 31 * h + System.identityHashCode(preMapper);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key o = (Key) obj;
+			return (hash == o.hash) && (preMapper == o.preMapper) && expression.equals(o.expression)
+					&& options.equals(o.options);
+		}
+	}
+}
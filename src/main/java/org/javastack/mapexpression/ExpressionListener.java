@@ -0,0 +1,49 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+/**
+ * Receive notifications of {@link MapExpression} activity, see
+ * {@link MapExpression#setListener(ExpressionListener)}. Called on the hot path, implementations should be
+ * fast and thread-safe.
+ */
+public interface ExpressionListener {
+	/**
+	 * Expression parsed (or found in cache)
+	 * 
+	 * @param expression source
+	 * @param nanos elapsed
+	 */
+	public void parsed(final String expression, final long nanos);
+
+	/**
+	 * Expression evaluated
+	 * 
+	 * @param expression source
+	 * @param nanos elapsed
+	 * @param chars written (negative if unknown or output is not chars)
+	 * @param bytes written (negative if unknown or output is not bytes)
+	 */
+	public void evaluated(final String expression, final long nanos, final long chars, final long bytes);
+
+	/**
+	 * Placeholder looked up in mapper
+	 * 
+	 * @param expression source
+	 * @param name of placeholder
+	 * @param found false if mapper returned null
+	 */
+	public void mapped(final String expression, final String name, final boolean found);
+}
@@ -0,0 +1,265 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExpressionListener collecting counters: parses, evals, output chars/bytes and mapper hits/misses, in
+ * total and per template (by expression) or placeholder name, and eval latency histograms per template
+ * (power of 2 buckets). Counters and histograms are striped by thread in padded rows to avoid contention
+ * between threads (up to 10KB per template). Templates and names are never removed, use {@link #reset()} if
+ * they are unbounded.
+ *
+ * @threadSafe true
+ */
+public class ExpressionMetrics implements ExpressionListener {
+	// Indexes of counters in Stats (NameStats only uses HITS and MISSES), followed by latency buckets
+	private static final int HITS = 0;
+	private static final int MISSES = 1;
+	private static final int PARSES = 2;
+	private static final int EVALS = 3;
+	private static final int CHARS = 4;
+	private static final int BYTES = 5;
+	private static final int LATENCY = 6;
+	private static final int BUCKETS = 64;
+
+	private final Stats total = new Stats();
+	private final ConcurrentHashMap<String, Stats> templates = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentHashMap<String, NameStats> names = new ConcurrentHashMap<String, NameStats>();
+
+	@Override
+	public void parsed(final String expression, final long nanos) {
+		total.counters.increment(PARSES);
+		stats(expression).counters.increment(PARSES);
+	}
+
+	@Override
+	public void evaluated(final String expression, final long nanos, final long chars, final long bytes) {
+		total.record(nanos, chars, bytes);
+		stats(expression).record(nanos, chars, bytes);
+	}
+
+	@Override
+	public void mapped(final String expression, final String name, final boolean found) {
+		NameStats s = names.get(name);
+		if (s == null) {
+			final NameStats prev = names.putIfAbsent(name, s = new NameStats());
+			if (prev != null)
+				s = prev;
+		}
+		final Stats t = stats(expression);
+		if (found) {
+			total.counters.increment(HITS);
+			t.counters.increment(HITS);
+			s.counters.increment(HITS);
+		} else {
+			total.counters.increment(MISSES);
+			t.counters.increment(MISSES);
+			s.counters.increment(MISSES);
+		}
+	}
+
+	private final Stats stats(final String expression) {
+		Stats s = templates.get(expression);
+		if (s == null) {
+			final Stats prev = templates.putIfAbsent(expression, s = new Stats());
+			if (prev != null)
+				s = prev;
+		}
+		return s;
+	}
+
+	/**
+	 * Get totals of all templates
+	 *
+	 * @return stats
+	 */
+	public Stats getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get stats of template
+	 *
+	 * @param expression source
+	 * @return stats or null if not seen
+	 */
+	public Stats getTemplate(final String expression) {
+		return templates.get(expression);
+	}
+
+	/**
+	 * Get seen templates
+	 *
+	 * @return expressions
+	 */
+	public Set<String> getTemplates() {
+		return Collections.unmodifiableSet(templates.keySet());
+	}
+
+	/**
+	 * Get seen placeholder names
+	 *
+	 * @return names
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(names.keySet());
+	}
+
+	/**
+	 * Get number of lookups of name found by mapper
+	 *
+	 * @param name of placeholder
+	 * @return hits
+	 */
+	public long getHits(final String name) {
+		final NameStats s = names.get(name);
+		return ((s == null) ? 0 : s.counters.sum(HITS));
+	}
+
+	/**
+	 * Get number of lookups of name not found by mapper
+	 *
+	 * @param name of placeholder
+	 * @return misses
+	 */
+	public long getMisses(final String name) {
+		final NameStats s = names.get(name);
+		return ((s == null) ? 0 : s.counters.sum(MISSES));
+	}
+
+	/**
+	 * Remove per template and per name stats (totals are kept)
+	 */
+	public void reset() {
+		templates.clear();
+		names.clear();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [templates=" + templates.size() + " names=" + names.size() + " total="
+				+ total + "]";
+	}
+
+	/**
+	 * Counters of a template (or total)
+	 */
+	public static final class Stats {
+		/**
+		 * Counters by index, and from {@link #LATENCY} bucket <code>i</code> counts latencies in
+		 * <code>[2^(i-1), 2^i)</code> nanos
+		 */
+		private final StripedCounter counters = new StripedCounter(LATENCY + BUCKETS);
+
+		Stats() {
+		}
+
+		final void record(final long nanos, final long chars, final long bytes) {
+			counters.increment(EVALS);
+			if (chars > 0)
+				counters.add(CHARS, chars);
+			if (bytes > 0)
+				counters.add(BYTES, bytes);
+			final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+			counters.increment(LATENCY + bucket);
+		}
+
+		public long getParses() {
+			return counters.sum(PARSES);
+		}
+
+		public long getEvals() {
+			return counters.sum(EVALS);
+		}
+
+		public long getChars() {
+			return counters.sum(CHARS);
+		}
+
+		public long getBytes() {
+			return counters.sum(BYTES);
+		}
+
+		/**
+		 * Get mapper lookups found
+		 *
+		 * @return hits
+		 */
+		public long getHits() {
+			return counters.sum(HITS);
+		}
+
+		/**
+		 * Get mapper lookups not found
+		 *
+		 * @return misses
+		 */
+		public long getMisses() {
+			return counters.sum(MISSES);
+		}
+
+		/**
+		 * Get eval latency histogram
+		 *
+		 * @return count by bucket, bucket <code>i</code> is <code>[2^(i-1), 2^i)</code> nanos
+		 */
+		public long[] getLatencyHistogram() {
+			final long[] h = new long[BUCKETS];
+			for (int i = 0; i < h.length; i++) {
+				h[i] = counters.sum(LATENCY + i);
+			}
+			return h;
+		}
+
+		/**
+		 * Get upper bound of eval latency percentile (precision is a power of 2)
+		 *
+		 * @param percentile between 0 and 100
+		 * @param unit of result
+		 * @return latency
+		 */
+		public long getLatencyPercentile(final double percentile, final TimeUnit unit) {
+			final long[] h = getLatencyHistogram();
+			long count = 0;
+			for (final long c : h) {
+				count += c;
+			}
+			final long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < h.length; i++) {
+				seen += h[i];
+				if ((seen >= rank) && (seen > 0))
+					return unit.convert(1L << i, TimeUnit.NANOSECONDS);
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "[parses=" + getParses() + " evals=" + getEvals() + " chars=" + getChars() + " bytes="
+					+ getBytes() + " hits=" + getHits() + " misses=" + getMisses() + " p99="
+					+ getLatencyPercentile(99, TimeUnit.MICROSECONDS) + "us]";
+		}
+	}
+
+	private static final class NameStats {
+		final StripedCounter counters = new StripedCounter(2);
+	}
+}
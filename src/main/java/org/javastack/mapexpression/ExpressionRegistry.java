@@ -0,0 +1,132 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable set of named {@link CompiledExpression}, built by {@link TemplateCompiler}. The compiled form can
+ * be written to a compact binary stream and read back at next startup without parsing again.
+ *
+ * @threadSafe true
+ */
+public final class ExpressionRegistry {
+	private static final int MAGIC = 0x4D585231; // "MXR1"
+	private static final int VERSION = 2;
+
+	private final Map<String, CompiledExpression> expressions;
+
+	ExpressionRegistry(final LinkedHashMap<String, CompiledExpression> expressions) {
+		this.expressions = Collections.unmodifiableMap(expressions);
+	}
+
+	/**
+	 * Get compiled expression
+	 *
+	 * @param name of template
+	 * @return compiled expression or null if not found
+	 */
+	public CompiledExpression get(final String name) {
+		return expressions.get(name);
+	}
+
+	/**
+	 * Get names of templates (in compile order)
+	 *
+	 * @return unmodifiable set of names
+	 */
+	public Set<String> getNames() {
+		return expressions.keySet();
+	}
+
+	/**
+	 * Get all templates
+	 *
+	 * @return unmodifiable map of name to compiled expression
+	 */
+	public Map<String, CompiledExpression> asMap() {
+		return expressions;
+	}
+
+	/**
+	 * Get number of templates
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return expressions.size();
+	}
+
+	/**
+	 * Write compiled templates, each distinct String is written once. PreMapper was applied on compile, so
+	 * the written form holds the pre-mapped names and literals.
+	 *
+	 * @param out destination (not closed)
+	 * @throws IOException if io fail
+	 * @see #readFrom(InputStream)
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		final StringTable strings = new StringTable();
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeInt(expressions.size());
+		for (final Map.Entry<String, CompiledExpression> e : expressions.entrySet()) {
+			strings.write(data, e.getKey());
+			e.getValue().writeTo(data, strings);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Read compiled templates written by {@link #writeTo(OutputStream)}
+	 *
+	 * @param in source (not closed)
+	 * @return registry
+	 * @throws IOException if io fail or data is invalid
+	 */
+	public static ExpressionRegistry readFrom(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC)
+			throw new IOException("Invalid format (bad magic)");
+		final int version = data.readUnsignedShort();
+		if (version != VERSION)
+			throw new IOException("Invalid format version: " + version);
+		final int count = data.readInt();
+		if (count < 0)
+			throw new IOException("Invalid template count: " + count);
+		final StringTable strings = new StringTable();
+		final LinkedHashMap<String, CompiledExpression> expressions = //
+				new LinkedHashMap<String, CompiledExpression>(Math.min(count, 1024) * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			final String name = strings.read(data);
+			expressions.put(name, CompiledExpression.readFrom(data, strings));
+		}
+		return new ExpressionRegistry(expressions);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [size=" + size() + "]";
+	}
+}
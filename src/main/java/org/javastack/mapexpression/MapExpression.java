@@ -18,14 +18,20 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Map;
 
+import org.javastack.mapexpression.mapper.IndexedMapper;
 import org.javastack.mapexpression.mapper.MapMapper;
 import org.javastack.mapexpression.mapper.Mapper;
+import org.javastack.mapexpression.mapper.ValueMapper;
 import org.javastack.mapexpression.mapper.MultiMapper;
+import org.javastack.mapexpression.mapper.SnapshotSystemPropertyMapper;
 import org.javastack.mapexpression.mapper.SystemPropertyMapper;
+import org.javastack.mapexpression.mapper.VersionedMapper;
 
 /**
  * Map Expression using System Properties, HashMap, and others
@@ -38,10 +44,19 @@ public class MapExpression {
 	private String evaled;
 	private Mapper preMapper = null;
 	private Mapper postMapper = null;
-	private char[] beginToken = "${".toCharArray();
-	private char[] endToken = "}".toCharArray();
-	private final ArrayList<Token> tokens = new ArrayList<Token>();
-	private final StringBuilder buffer = new StringBuilder();
+	private CompileOptions options = CompileOptions.DEFAULT;
+	private ExpressionCache cache = null;
+	private ParallelEvaluator parallel = null;
+	private RecursiveEvaluator recursive = null;
+	private ExpressionListener listener = null;
+	private CompiledExpression compiled = CompiledExpression.EMPTY;
+	private BufferPool pool = ThreadLocalBufferPool.getInstance();
+	private boolean incremental = false;
+	// State of last incremental eval: inputs, version seen and values by slot
+	private CompiledExpression lastCompiled = null;
+	private Mapper lastMapper = null;
+	private long lastVersion = 0;
+	private String[] lastValues = null;
 
 	/**
 	 * Create Empty Map Expression, no expression, no mappers
@@ -53,7 +68,9 @@ public class MapExpression {
 	}
 
 	/**
-	 * Create Map Expression without evaluate and SystemProperties as PostMapper
+	 * Create Map Expression without evaluate and SystemProperties as PostMapper, parsed expressions are
+	 * shared using {@link ExpressionCache#getDefault()}. For faster lookups of rarely changing properties
+	 * set {@link SnapshotSystemPropertyMapper#getInstance()} as PostMapper.
 	 * 
 	 * @param expression to map
 	 * @throws InvalidExpression if expression is invalid
@@ -61,11 +78,12 @@ public class MapExpression {
 	 * @see #MapExpression(String, Mapper, Mapper, boolean)
 	 */
 	public MapExpression(final String expression) throws InvalidExpression {
-		this(expression, null, SystemPropertyMapper.getInstance(), false);
+		this(expression, null, SystemPropertyMapper.getInstance(), false, ExpressionCache.getDefault());
 	}
 
 	/**
-	 * Create Map Expression with SystemProperties and Map as PostMappers
+	 * Create Map Expression with SystemProperties and Map as PostMappers, parsed expressions are shared
+	 * using {@link ExpressionCache#getDefault()}
 	 * 
 	 * @param expression to map
 	 * @param postMap map for parameters
@@ -77,7 +95,7 @@ public class MapExpression {
 	public MapExpression(final String expression, final Map<String, String> postMap, final boolean evalInit)
 			throws InvalidExpression {
 		this(expression, null, new MultiMapper().add(new MapMapper(postMap)).add(
-				SystemPropertyMapper.getInstance()), evalInit);
+				SystemPropertyMapper.getInstance()), evalInit, ExpressionCache.getDefault());
 	}
 
 	/**
@@ -92,9 +110,15 @@ public class MapExpression {
 	 */
 	public MapExpression(final String expression, final Mapper preMapper, final Mapper postMapper,
 			final boolean evalInit) throws InvalidExpression {
+		this(expression, preMapper, postMapper, evalInit, null);
+	}
+
+	private MapExpression(final String expression, final Mapper preMapper, final Mapper postMapper,
+			final boolean evalInit, final ExpressionCache cache) throws InvalidExpression {
 		this.expression = expression;
 		this.preMapper = preMapper;
 		this.postMapper = postMapper;
+		this.cache = cache;
 		if (expression != null) {
 			parse();
 			if (evalInit)
@@ -132,11 +156,54 @@ public class MapExpression {
 	 * @see #parse()
 	 */
 	public MapExpression setDelimiters(final String beginToken, final String endToken) {
-		this.beginToken = beginToken.toCharArray();
-		this.endToken = endToken.toCharArray();
+		setOptions(options.withDelimiters(beginToken, endToken));
+		return this;
+	}
+
+	/**
+	 * Set escape sequence for literal begin delimiter, like &quot;$&quot; for <code>$${x}</code> (disabled
+	 * by default)
+	 * 
+	 * @param escape sequence or null to disable
+	 * @return self
+	 * @see #parse()
+	 * @see CompileOptions#withEscape(String)
+	 */
+	public MapExpression setEscape(final String escape) {
+		setOptions(options.withEscape(escape));
 		return this;
 	}
 
+	/**
+	 * Set separator of inline default values, like <code>${name:default}</code> (disabled by default)
+	 * 
+	 * @param defaultSeparator separator or null to disable
+	 * @return self
+	 * @see #parse()
+	 * @see CompileOptions#withDefaultSeparator(String)
+	 */
+	public MapExpression setDefaultSeparator(final String defaultSeparator) {
+		setOptions(options.withDefaultSeparator(defaultSeparator));
+		return this;
+	}
+
+	/**
+	 * Set output of placeholders without value and without inline default
+	 * 
+	 * @param missingPolicy (default {@link MissingPolicy#KEEP_NAME})
+	 * @return self
+	 * @see #parse()
+	 */
+	public MapExpression setMissingPolicy(final MissingPolicy missingPolicy) {
+		setOptions(options.withMissingPolicy(missingPolicy));
+		return this;
+	}
+
+	private final void setOptions(final CompileOptions options) {
+		checkRecursive(recursive, options);
+		this.options = options;
+	}
+
 	/**
 	 * Set pre mapper for parameters
 	 * 
@@ -159,9 +226,122 @@ public class MapExpression {
 		return this;
 	}
 
-	private final String evalMapToken(final int token, final Mapper finalMapper) throws InvalidExpression {
-		final Token tok = tokens.get(token);
-		return tok.isString ? tok.token : mapTokenPost(tok.token, finalMapper);
+	/**
+	 * Set cache used on {@link #parse()} to skip parsing of already seen expressions
+	 * 
+	 * @param cache to use or null to always parse
+	 * @return self
+	 */
+	public MapExpression setCache(final ExpressionCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Set evaluator used to render expressions with many placeholders in parallel, used by every output
+	 * evaluated with a Mapper (postMapper must be thread-safe). Outputs other than StringBuilder and
+	 * Appendable get the result rendered to a String first.
+	 * 
+	 * @param parallel evaluator or null to always evaluate serially
+	 * @return self
+	 */
+	public MapExpression setParallelEvaluator(final ParallelEvaluator parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**
+	 * Set evaluator used to resolve nested placeholders and mapped values containing placeholders, used by
+	 * every output evaluated with a Mapper instead of the parsed expression (preMapper is not applied, and
+	 * outputs other than StringBuilder and Appendable get the result rendered to a String first). Evaluator
+	 * must use the same delimiters, escape, inline defaults and missing policies are not supported.
+	 * 
+	 * @param recursive evaluator or null to emit mapped values verbatim
+	 * @return self
+	 * @throws IllegalArgumentException if options of this expression are not supported by evaluator
+	 */
+	public MapExpression setRecursiveEvaluator(final RecursiveEvaluator recursive) {
+		checkRecursive(recursive, options);
+		this.recursive = recursive;
+		return this;
+	}
+
+	private static final void checkRecursive(final RecursiveEvaluator recursive,
+			final CompileOptions options) {
+		if (recursive == null)
+			return;
+		if (!recursive.getBeginToken().equals(options.getBeginToken())
+				|| !recursive.getEndToken().equals(options.getEndToken())) {
+			throw new IllegalArgumentException("Invalid delimiters for RecursiveEvaluator: "
+					+ options.getBeginToken() + " " + options.getEndToken());
+		}
+		if (options.getEscape() != null)
+			throw new IllegalArgumentException("Escape not supported by RecursiveEvaluator");
+		if (options.getDefaultSeparator() != null)
+			throw new IllegalArgumentException("Default separator not supported by RecursiveEvaluator");
+		if (options.getMissingPolicy() != MissingPolicy.KEEP_NAME)
+			throw new IllegalArgumentException("Missing policy not supported by RecursiveEvaluator: "
+					+ options.getMissingPolicy());
+	}
+
+	/**
+	 * Set listener notified of parse, eval and mapper lookups (only {@link Mapper} lookups are reported)
+	 * 
+	 * @param listener to notify or null to disable (default)
+	 * @return self
+	 * @see ExpressionMetrics
+	 */
+	public MapExpression setListener(final ExpressionListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Set pool of buffers used by {@link #eval()} and {@link #evalChars()}
+	 * 
+	 * @param pool (default {@link ThreadLocalBufferPool#getInstance()})
+	 * @return self
+	 */
+	public MapExpression setBufferPool(final BufferPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException("Invalid pool (null)");
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Set incremental mode: if postMapper is a {@link VersionedMapper}, {@link #eval()} remembers values of
+	 * referenced names and only maps again names changed since previous eval, the stored result is kept if
+	 * no value changed. Not used with a RecursiveEvaluator (values may reference other names).
+	 * 
+	 * @param incremental true to enable (default false)
+	 * @return self
+	 */
+	public MapExpression setIncremental(final boolean incremental) {
+		this.incremental = incremental;
+		this.lastValues = null;
+		return this;
+	}
+
+	private final Mapper selectMapper(final Mapper finalMapper) {
+		final Mapper mapper = (finalMapper == null ? postMapper : finalMapper);
+		return ((listener == null) ? mapper : new ListeningMapper(mapper, expression, listener));
+	}
+
+	private final long start() {
+		return ((listener == null) ? 0 : System.nanoTime());
+	}
+
+	/**
+	 * Notify eval to listener
+	 * 
+	 * @param start time from {@link #start()}
+	 * @param chars written (negative if unknown)
+	 * @param bytes written (negative if unknown)
+	 */
+	private final void evaluated(final long start, final long chars, final long bytes) {
+		if (listener != null)
+			listener.evaluated(expression, System.nanoTime() - start, chars, bytes);
 	}
 
 	/**
@@ -174,15 +354,125 @@ public class MapExpression {
 	 * @threadSafe false
 	 */
 	public MapExpression eval() throws InvalidExpression {
-		buffer.setLength(0);
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			buffer.append(evalMapToken(i, null));
+		if (incremental && (recursive == null) && (postMapper instanceof VersionedMapper))
+			return evalIncremental((VersionedMapper) postMapper);
+		final StringBuilder buffer = pool.acquire(compiled.estimatedSize());
+		try {
+			evaled = render(buffer).toString();
+		} finally {
+			pool.release(buffer);
 		}
-		evaled = buffer.toString();
 		return this;
 	}
 
+	private final MapExpression evalIncremental(final VersionedMapper versioned) throws InvalidExpression {
+		final long start = start();
+		final long version = versioned.getVersion();
+		final CompiledExpression compiled = this.compiled;
+		final Mapper mapper = selectMapper(null);
+		final int slots = compiled.getSlotCount();
+		String[] values = lastValues;
+		boolean changed = false;
+		if ((values == null) || (evaled == null) || (lastCompiled != compiled) || (lastMapper != versioned)) {
+			values = new String[slots];
+			for (int i = 0; i < slots; i++) {
+				values[i] = mapper.map(compiled.getName(i));
+			}
+			changed = true;
+		} else if (version != lastVersion) {
+			for (int i = 0; i < slots; i++) {
+				final String name = compiled.getName(i);
+				if (versioned.getVersion(name) > lastVersion) {
+					final String value = mapper.map(name);
+					if ((value == null) ? (values[i] != null) : !value.equals(values[i])) {
+						// Work on a copy, last state is only replaced after a successful render
+						if (!changed)
+							values = values.clone();
+						values[i] = value;
+						changed = true;
+					}
+				}
+			}
+		}
+		if (changed) {
+			final StringBuilder buffer = pool.acquire(compiled.estimatedSize());
+			try {
+				compiled.evalIndexed(buffer, values);
+				evaled = buffer.toString();
+			} finally {
+				pool.release(buffer);
+			}
+		}
+		lastCompiled = compiled;
+		lastMapper = versioned;
+		lastVersion = version;
+		lastValues = values;
+		evaluated(start, evaled.length(), -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression without copying the result (not stored for {@link #get()}), for callers that
+	 * write it somewhere else right away. With a {@link ThreadLocalBufferPool} the result is its buffer and
+	 * is only valid until next eval in this thread, other pools are shared between threads so their buffer
+	 * is handed to the caller and not released.
+	 * 
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 * @see #setBufferPool(BufferPool)
+	 */
+	public CharSequence evalChars() throws InvalidExpression {
+		final BufferPool pool = this.pool;
+		final StringBuilder buffer = pool.acquire(compiled.estimatedSize());
+		boolean done = false;
+		try {
+			render(buffer);
+			done = true;
+		} finally {
+			if (!done || (pool instanceof ThreadLocalBufferPool))
+				pool.release(buffer);
+		}
+		return buffer;
+	}
+
+	private final StringBuilder render(final StringBuilder buffer) throws InvalidExpression {
+		final long start = start();
+		dispatch(buffer, selectMapper(null));
+		evaluated(start, buffer.length(), -1);
+		return buffer;
+	}
+
+	/**
+	 * Evaluate with recursive or parallel evaluator if set, else with compiled expression
+	 */
+	private final void dispatch(final StringBuilder out, final Mapper mapper) throws InvalidExpression {
+		if (recursive != null) {
+			recursive.eval(expression, out, mapper);
+		} else if (parallel == null) {
+			compiled.eval(out, mapper);
+		} else {
+			parallel.eval(compiled, out, mapper);
+		}
+	}
+
+	/**
+	 * Check if a recursive or parallel evaluator is set, outputs without their own path are rendered to a
+	 * String with {@link #dispatch(StringBuilder, Mapper)}
+	 */
+	private final boolean hasEvaluator() {
+		return (recursive != null) || (parallel != null);
+	}
+
+	private final String dispatch(final Mapper mapper) throws InvalidExpression {
+		final StringBuilder buffer = pool.acquire(compiled.estimatedSize());
+		try {
+			dispatch(buffer, mapper);
+			return buffer.toString();
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
 	/**
 	 * Evaluate expression and write to OutputStream using specified Charset
 	 * 
@@ -209,10 +499,168 @@ public class MapExpression {
 	 */
 	public MapExpression eval(final OutputStream out, final Charset charset, final Mapper finalMapper) throws InvalidExpression,
 			IOException {
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			out.write(evalMapToken(i, finalMapper).getBytes(charset));
+		final long start = start();
+		if (hasEvaluator()) {
+			out.write(dispatch(selectMapper(finalMapper)).getBytes(charset));
+		} else {
+			compiled.eval(out, charset, selectMapper(finalMapper));
 		}
+		evaluated(start, -1, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression and write to ByteBuffer using specified Charset
+	 * 
+	 * @param out destination
+	 * @param charset used for encoding
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression eval(final ByteBuffer out, final Charset charset) throws InvalidExpression {
+		return eval(out, charset, (Mapper) null);
+	}
+
+	/**
+	 * Evaluate expression and write to ByteBuffer using specified Charset using <code>finalMapper</code> as
+	 * postMapper
+	 * 
+	 * @param out destination
+	 * @param charset used for encoding
+	 * @param finalMapper used instead of postMapper
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression eval(final ByteBuffer out, final Charset charset, final Mapper finalMapper)
+			throws InvalidExpression {
+		final int pos = out.position();
+		final long start = start();
+		if (hasEvaluator()) {
+			out.put(dispatch(selectMapper(finalMapper)).getBytes(charset));
+		} else {
+			compiled.encode(charset).eval(out, selectMapper(finalMapper));
+		}
+		evaluated(start, -1, out.position() - pos);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression with ValueMapper and write to ByteBuffer using specified Charset
+	 * 
+	 * @param out destination
+	 * @param charset used for encoding
+	 * @param finalMapper for parameters (if null, postMapper is used)
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws java.nio.BufferOverflowException if there is insufficient space in destination
+	 */
+	public MapExpression eval(final ByteBuffer out, final Charset charset, final ValueMapper finalMapper)
+			throws InvalidExpression {
+		if ((finalMapper == null) || hasEvaluator())
+			return eval(out, charset, (Mapper) finalMapper);
+		final int pos = out.position();
+		final long start = start();
+		compiled.encode(charset).eval(out, finalMapper);
+		evaluated(start, -1, out.position() - pos);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression and write to Appendable
+	 * 
+	 * @param out destination
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public MapExpression eval(final Appendable out) throws InvalidExpression, IOException {
+		return eval(out, (Mapper) null);
+	}
+
+	/**
+	 * Evaluate expression and write to Appendable using <code>finalMapper</code> as postMapper
+	 * 
+	 * @param out destination
+	 * @param finalMapper used instead of postMapper
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public MapExpression eval(final Appendable out, final Mapper finalMapper) throws InvalidExpression,
+			IOException {
+		final long start = start();
+		if (recursive != null) {
+			recursive.eval(expression, out, selectMapper(finalMapper));
+		} else if (parallel == null) {
+			compiled.eval(out, selectMapper(finalMapper));
+		} else {
+			parallel.eval(compiled, out, selectMapper(finalMapper));
+		}
+		evaluated(start, -1, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression and write to Writer
+	 * 
+	 * @param out destination
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public MapExpression eval(final Writer out) throws InvalidExpression, IOException {
+		return eval(out, (Mapper) null);
+	}
+
+	/**
+	 * Evaluate expression and write to Writer using <code>finalMapper</code> as postMapper
+	 * 
+	 * @param out destination
+	 * @param finalMapper used instead of postMapper
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public MapExpression eval(final Writer out, final Mapper finalMapper) throws InvalidExpression,
+			IOException {
+		final long start = start();
+		if (hasEvaluator()) {
+			out.write(dispatch(selectMapper(finalMapper)));
+		} else {
+			compiled.eval(out, selectMapper(finalMapper));
+		}
+		evaluated(start, -1, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression and write to CharBuffer
+	 * 
+	 * @param out destination
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression eval(final CharBuffer out) throws InvalidExpression {
+		return eval(out, (Mapper) null);
+	}
+
+	/**
+	 * Evaluate expression and write to CharBuffer using <code>finalMapper</code> as postMapper
+	 * 
+	 * @param out destination
+	 * @param finalMapper used instead of postMapper
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression eval(final CharBuffer out, final Mapper finalMapper) throws InvalidExpression {
+		final int pos = out.position();
+		final long start = start();
+		if (hasEvaluator()) {
+			out.put(dispatch(selectMapper(finalMapper)));
+		} else {
+			compiled.eval(out, selectMapper(finalMapper));
+		}
+		evaluated(start, out.position() - pos, -1);
 		return this;
 	}
 
@@ -236,10 +684,13 @@ public class MapExpression {
 	 * @throws InvalidExpression if expression is invalid
 	 */
 	public MapExpression eval(final PrintWriter out, final Mapper finalMapper) throws InvalidExpression {
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			out.print(evalMapToken(i, finalMapper));
+		final long start = start();
+		if (hasEvaluator()) {
+			out.print(dispatch(selectMapper(finalMapper)));
+		} else {
+			compiled.eval(out, selectMapper(finalMapper));
 		}
+		evaluated(start, -1, -1);
 		return this;
 	}
 
@@ -263,10 +714,13 @@ public class MapExpression {
 	 * @throws InvalidExpression if expression is invalid
 	 */
 	public MapExpression eval(final PrintStream out, final Mapper finalMapper) throws InvalidExpression {
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			out.print(evalMapToken(i, finalMapper));
+		final long start = start();
+		if (hasEvaluator()) {
+			out.print(dispatch(selectMapper(finalMapper)));
+		} else {
+			compiled.eval(out, selectMapper(finalMapper));
 		}
+		evaluated(start, -1, -1);
 		return this;
 	}
 
@@ -290,10 +744,80 @@ public class MapExpression {
 	 * @throws InvalidExpression if expression is invalid
 	 */
 	public MapExpression eval(final StringBuilder out, final Mapper finalMapper) throws InvalidExpression {
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			out.append(evalMapToken(i, finalMapper));
-		}
+		final int pos = out.length();
+		final long start = start();
+		dispatch(out, selectMapper(finalMapper));
+		evaluated(start, out.length() - pos, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression with ValueMapper and write to StringBuilder
+	 * 
+	 * @param out destination
+	 * @param finalMapper for parameters (if null, postMapper is used)
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression eval(final StringBuilder out, final ValueMapper finalMapper)
+			throws InvalidExpression {
+		if ((finalMapper == null) || hasEvaluator())
+			return eval(out, (Mapper) finalMapper);
+		final int pos = out.length();
+		final long start = start();
+		compiled.eval(out, finalMapper);
+		evaluated(start, out.length() - pos, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression with values by position and write to StringBuilder
+	 * 
+	 * @param out destination
+	 * @param values in order of {@link #getNames()} (null values are not mapped)
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression evalIndexed(final StringBuilder out, final String[] values)
+			throws InvalidExpression {
+		final int pos = out.length();
+		final long start = start();
+		compiled.evalIndexed(out, values);
+		evaluated(start, out.length() - pos, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression with values by position and write to StringBuilder
+	 * 
+	 * @param out destination
+	 * @param values in order of {@link #getNames()} (null values are not mapped)
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression evalIndexed(final StringBuilder out, final Object[] values)
+			throws InvalidExpression {
+		final int pos = out.length();
+		final long start = start();
+		compiled.evalIndexed(out, values);
+		evaluated(start, out.length() - pos, -1);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression with IndexedMapper and write to StringBuilder
+	 * 
+	 * @param out destination
+	 * @param mapper for parameters by slot, in order of {@link #getNames()}
+	 * @return self
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public MapExpression evalIndexed(final StringBuilder out, final IndexedMapper mapper)
+			throws InvalidExpression {
+		final int pos = out.length();
+		final long start = start();
+		compiled.evalIndexed(out, mapper);
+		evaluated(start, out.length() - pos, -1);
 		return this;
 	}
 
@@ -321,13 +845,36 @@ public class MapExpression {
 	 * @see OutputCallback#writeEvaled(String)
 	 */
 	public MapExpression eval(final OutputCallback out, final Mapper finalMapper) throws InvalidExpression {
-		final int len = tokens.size();
-		for (int i = 0; i < len; i++) {
-			out.writeEvaled(evalMapToken(i, finalMapper));
+		final long start = start();
+		if (hasEvaluator()) {
+			out.writeEvaled(dispatch(selectMapper(finalMapper)));
+		} else {
+			compiled.eval(out, selectMapper(finalMapper));
 		}
+		evaluated(start, -1, -1);
 		return this;
 	}
 
+	/**
+	 * Get estimated length of evaluated expression, to allocate destination buffers
+	 * 
+	 * @return length in chars
+	 * @see CompiledExpression#estimatedSize()
+	 */
+	public int estimatedSize() {
+		return compiled.estimatedSize();
+	}
+
+	/**
+	 * Get distinct placeholder names of parsed expression (after preMapper), in order of first appearance
+	 * 
+	 * @return names
+	 * @see #parse()
+	 */
+	public String[] getNames() {
+		return compiled.getNames();
+	}
+
 	/**
 	 * Get previous evaluated expression with {@link #eval()}
 	 * 
@@ -345,107 +892,23 @@ public class MapExpression {
 	 * @throws InvalidExpression if expression is wrong
 	 */
 	public MapExpression parse() throws InvalidExpression {
-		if (expression == null)
-			throw new InvalidExpression("Null Expression", 0);
-		tokens.clear();
-		if (expression.isEmpty())
-			return this;
-		// Find all ${tag}
-		final int len = expression.length();
-		final int beginTokenLen = beginToken.length;
-		final int endTokenLen = endToken.length;
-		boolean tokenBeginOrEnd = true;
-		int last = 0, tokenPos = 0;
-		for (int i = 0; i < len;) {
-			final char c = expression.charAt(i);
-			if (tokenBeginOrEnd) {
-				if (tokenPos < beginTokenLen) {
-					if (c == beginToken[tokenPos]) {
-						tokenPos++;
-					} else {
-						tokenPos = 0;
-					}
-					i++;
-					continue;
-				} else {
-					tokens.add(new Token(expression.substring(last, i - beginTokenLen), true));
-					tokenBeginOrEnd = false;
-					last = i;
-					tokenPos = 0;
-				}
-			} else {
-				if (tokenPos < endTokenLen) {
-					if (c == endToken[tokenPos]) {
-						tokenPos++;
-					} else {
-						tokenPos = 0; // Reset
-						tokenBeginOrEnd = false;
-					}
-					i++;
-					continue;
-				} else {
-					tokens.add(new Token(mapTokenPre(expression.substring(last, i - endTokenLen)), false));
-					tokenBeginOrEnd = true;
-					last = i;
-					tokenPos = 0;
-				}
-			}
-		}
-		if (tokenBeginOrEnd) {
-			if (tokenPos == beginTokenLen) {
-				throw new InvalidExpression("Not well ended expression: " + //
-						expression.substring(last, len), len);
-			} else {
-				tokens.add(new Token(expression.substring(last, len), true));
-			}
-		} else {
-			if (tokenPos == endTokenLen) {
-				tokens.add(new Token(mapTokenPre(expression.substring(last, len - endTokenLen)), false));
-			} else {
-				throw new InvalidExpression("Not well ended expression: " + //
-						expression.substring(last, len), len);
-			}
-		}
+		final long start = start();
+		compiled = ((cache == null) ? compile() : cache.get(expression, options, preMapper));
+		if (listener != null)
+			listener.parsed(expression, System.nanoTime() - start);
 		return this;
 	}
 
 	/**
-	 * Map Token Pre eval (when parseExpression() is called)
-	 * 
-	 * @param name
-	 * @return value or name if not found
-	 * @throws InvalidExpression if expression is wrong
-	 */
-	private final String mapTokenPre(final String name) throws InvalidExpression {
-		if (name.isEmpty())
-			throw new InvalidExpression("Invalid name (empty)", 0);
-		if (preMapper != null) {
-			final String value = preMapper.map(name);
-			if (value != null)
-				return value;
-		}
-		return name;
-	}
-
-	/**
-	 * Map Token Post parse (when eval() is called) using <code>finalMapper</code> as postMapper
+	 * Parse expression into a thread-safe form that can be shared between threads, this instance is not
+	 * modified
 	 * 
-	 * @param name
-	 * @return value or name if not found
+	 * @return compiled expression
 	 * @throws InvalidExpression if expression is wrong
+	 * @see CompiledExpression
 	 */
-	private final String mapTokenPost(final String name, Mapper finalMapper) throws InvalidExpression {
-		if (name.isEmpty())
-			throw new InvalidExpression("Invalid name (empty)", 0);
-		if (finalMapper == null) {
-			finalMapper = this.postMapper;
-		}
-		if (finalMapper != null) {
-			final String value = finalMapper.map(name);
-			if (value != null)
-				return value;
-		}
-		return name;
+	public CompiledExpression compile() throws InvalidExpression {
+		return CompiledExpression.compile(expression, options, preMapper);
 	}
 
 	@Override
@@ -453,17 +916,25 @@ public class MapExpression {
 		return super.toString() + " [expression=" + expression + "]";
 	}
 
-	private static final class Token {
-		public final String token;
-		public final boolean isString;
-
-		public Token(final String token, final boolean isToken) {
-			this.token = token;
-			this.isString = isToken;
+	/**
+	 * Report lookups of wrapped mapper to listener
+	 */
+	private static final class ListeningMapper implements Mapper {
+		private final Mapper mapper;
+		private final String expression;
+		private final ExpressionListener listener;
+
+		ListeningMapper(final Mapper mapper, final String expression, final ExpressionListener listener) {
+			this.mapper = mapper;
+			this.expression = expression;
+			this.listener = listener;
 		}
 
-		public String toString() {
-			return (isString ? "string=<" : "token=<") + token + ">";
+		@Override
+		public String map(final String input) {
+			final String value = ((mapper == null) ? null : mapper.map(input));
+			listener.mapped(expression, input, (value != null));
+			return value;
 		}
 	}
 }
@@ -0,0 +1,262 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Expression backed by a memory-mapped template file. Placeholders are located once, literals are kept as
+ * (offset, length) of the mapped region and copied to the output without decoding, only mapped values are
+ * encoded.
+ * <p>
+ * Charset must be ASCII transparent (UTF-8, US-ASCII or ISO-8859-*), delimiters are searched as encoded bytes
+ * and no byte of a multi-byte char may look like ASCII.
+ *
+ * @threadSafe true
+ */
+public class MappedExpression implements Closeable {
+	/**
+	 * Literals of this size or greater are copied with {@link FileChannel#transferTo(long, long,
+	 * WritableByteChannel)}
+	 */
+	private static final int TRANSFER_THRESHOLD = 64 * 1024;
+
+	private final File file;
+	private final Charset charset;
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+	/**
+	 * Segment offsets in file, begin (inclusive) and end (exclusive)
+	 */
+	private final int[] begins;
+	private final int[] ends;
+	/**
+	 * Placeholder name (null if literal)
+	 */
+	private final String[] names;
+
+	/**
+	 * Map template file and locate placeholders
+	 *
+	 * @param file template
+	 * @param charset of file (UTF-8, US-ASCII or ISO-8859-*)
+	 * @param beginToken delimiter (like &quot;${&quot;)
+	 * @param endToken delimiter (like &quot;}&quot;)
+	 * @throws InvalidExpression if expression is wrong
+	 * @throws IOException if io fail
+	 */
+	public MappedExpression(final File file, final Charset charset, final String beginToken,
+			final String endToken) throws InvalidExpression, IOException {
+		if (beginToken.isEmpty() || endToken.isEmpty())
+			throw new IllegalArgumentException("Invalid delimiters (empty)");
+		if (!isAsciiTransparent(charset))
+			throw new IllegalArgumentException("Charset not ASCII transparent: " + charset);
+		this.file = file;
+		this.charset = charset;
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		boolean done = false;
+		try {
+			this.channel = raf.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too big: " + file + " (" + size + " bytes)");
+			this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			final ArrayList<int[]> segments = new ArrayList<int[]>();
+			final ArrayList<String> names = new ArrayList<String>();
+			parse(beginToken.getBytes(charset), endToken.getBytes(charset), segments, names);
+			final int count = segments.size();
+			this.begins = new int[count];
+			this.ends = new int[count];
+			this.names = names.toArray(new String[count]);
+			for (int i = 0; i < count; i++) {
+				final int[] seg = segments.get(i);
+				begins[i] = seg[0];
+				ends[i] = seg[1];
+			}
+			done = true;
+		} finally {
+			if (!done)
+				raf.close();
+		}
+	}
+
+	/**
+	 * Check if ASCII chars are single bytes that never appear inside other chars (double-byte charsets like
+	 * Shift_JIS have trail bytes equal to ASCII delimiters)
+	 */
+	private static final boolean isAsciiTransparent(final Charset charset) {
+		final String name = charset.name();
+		return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-");
+	}
+
+	private final void parse(final byte[] beginToken, final byte[] endToken, final ArrayList<int[]> segments,
+			final ArrayList<String> names) throws InvalidExpression {
+		final HashMap<String, String> distinct = new HashMap<String, String>();
+		final int len = mapped.limit();
+		int last = 0;
+		while (last < len) {
+			final int begin = indexOf(beginToken, last, len);
+			if (begin < 0)
+				break;
+			final int nameBegin = begin + beginToken.length;
+			final int nameEnd = indexOf(endToken, nameBegin, len);
+			if (nameEnd < 0)
+				throw new InvalidExpression("Not well ended expression: " + decode(nameBegin, len), begin);
+			if (nameEnd == nameBegin)
+				throw new InvalidExpression("Invalid name (empty)", nameBegin);
+			if (last < begin) {
+				segments.add(new int[] { last, begin });
+				names.add(null);
+			}
+			final String name = decode(nameBegin, nameEnd);
+			final String prev = distinct.get(name);
+			if (prev == null)
+				distinct.put(name, name);
+			segments.add(new int[] { nameBegin, nameEnd });
+			names.add((prev == null) ? name : prev);
+			last = nameEnd + endToken.length;
+		}
+		if (last < len) {
+			segments.add(new int[] { last, len });
+			names.add(null);
+		}
+	}
+
+	private final int indexOf(final byte[] pattern, final int from, final int to) {
+		final byte first = pattern[0];
+		final int max = to - pattern.length;
+		for (int i = from; i <= max; i++) {
+			if (mapped.get(i) != first)
+				continue;
+			int j = 1;
+			while ((j < pattern.length) && (mapped.get(i + j) == pattern[j])) {
+				j++;
+			}
+			if (j == pattern.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private final String decode(final int begin, final int end) {
+		final byte[] b = new byte[end - begin];
+		final ByteBuffer dup = mapped.duplicate();
+		dup.position(begin);
+		dup.get(b);
+		return new String(b, charset);
+	}
+
+	/**
+	 * Get template File
+	 *
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get Charset of template and output
+	 *
+	 * @return charset
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Evaluate expression and write to WritableByteChannel
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final WritableByteChannel out, final Mapper mapper) throws InvalidExpression,
+			IOException {
+		final ByteBuffer dup = mapped.duplicate();
+		final ValueEncoder encoder = ValueEncoder.acquire(charset);
+		try {
+			for (int i = 0; i < names.length; i++) {
+				final String name = names[i];
+				if (name == null) {
+					writeLiteral(begins[i], ends[i], dup, out);
+				} else {
+					final String value = CompiledExpression.mapTokenPost(name, mapper);
+					encoder.write(value, 0, value.length(), out);
+				}
+			}
+		} finally {
+			encoder.release();
+		}
+	}
+
+	/**
+	 * Evaluate expression and write to OutputStream
+	 *
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final OutputStream out, final Mapper mapper) throws InvalidExpression, IOException {
+		eval(Channels.newChannel(out), mapper);
+	}
+
+	private final void writeLiteral(final int begin, final int end, final ByteBuffer dup,
+			final WritableByteChannel out) throws IOException {
+		int pos = begin;
+		if ((end - begin) >= TRANSFER_THRESHOLD) {
+			long n;
+			// Stop on no progress (like a non-blocking channel), rest is copied from buffer
+			while ((pos < end) && ((n = channel.transferTo(pos, end - pos, out)) > 0)) {
+				pos += n;
+			}
+		}
+		if (pos < end) {
+			dup.limit(end).position(pos);
+			while (dup.hasRemaining()) {
+				out.write(dup);
+			}
+		}
+	}
+
+	/**
+	 * Close file, this expression can not be evaluated after close
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [file=" + file + " charset=" + charset + "]";
+	}
+}
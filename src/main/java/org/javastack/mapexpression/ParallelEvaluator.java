@@ -0,0 +1,232 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Evaluate expressions with many placeholders in parallel: tokens are split in chunks, each chunk is
+ * mapped and rendered in its own buffer on a ForkJoinPool, and buffers are joined in order. If some name
+ * is repeated, distinct names are first mapped once each (also in parallel). Expressions below the
+ * threshold are evaluated serially. The Mapper must be thread-safe.
+ *
+ * @threadSafe true
+ */
+public class ParallelEvaluator {
+	private static final int DEFAULT_THRESHOLD = 4096;
+	private static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private final ForkJoinPool pool;
+	private final int threshold;
+	private final int chunkSize;
+
+	/**
+	 * Create evaluator with default threshold (4096 placeholders) and chunk size (1024 tokens)
+	 *
+	 * @param pool used for rendering
+	 */
+	public ParallelEvaluator(final ForkJoinPool pool) {
+		this(pool, DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create evaluator
+	 *
+	 * @param pool used for rendering
+	 * @param threshold minimum number of placeholders to evaluate in parallel
+	 * @param chunkSize number of tokens rendered by each task
+	 */
+	public ParallelEvaluator(final ForkJoinPool pool, final int threshold, final int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Invalid chunkSize: " + chunkSize);
+		this.pool = pool;
+		this.threshold = threshold;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Evaluate expression
+	 *
+	 * @param compiled expression
+	 * @param mapper for parameters (can be null)
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public String eval(final CompiledExpression compiled, final Mapper mapper) throws InvalidExpression {
+		final StringBuilder out = new StringBuilder();
+		eval(compiled, out, mapper);
+		return out.toString();
+	}
+
+	/**
+	 * Evaluate expression and write to StringBuilder
+	 *
+	 * @param compiled expression
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 */
+	public void eval(final CompiledExpression compiled, final StringBuilder out, final Mapper mapper)
+			throws InvalidExpression {
+		if (isSerial(compiled)) {
+			compiled.eval(out, mapper);
+			return;
+		}
+		final StringBuilder[] parts = render(compiled, mapper);
+		int length = 0;
+		for (final StringBuilder part : parts) {
+			length += part.length();
+		}
+		out.ensureCapacity(out.length() + length);
+		for (final StringBuilder part : parts) {
+			out.append(part);
+		}
+		compiled.observe(length);
+	}
+
+	/**
+	 * Evaluate expression and write to Appendable
+	 *
+	 * @param compiled expression
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final CompiledExpression compiled, final Appendable out, final Mapper mapper)
+			throws InvalidExpression, IOException {
+		if (isSerial(compiled)) {
+			compiled.eval(out, mapper);
+			return;
+		}
+		for (final StringBuilder part : render(compiled, mapper)) {
+			out.append(part);
+		}
+	}
+
+	private final boolean isSerial(final CompiledExpression compiled) {
+		return (compiled.getPlaceholderCount() < threshold) || (compiled.getTokenCount() <= chunkSize);
+	}
+
+	private final StringBuilder[] render(final CompiledExpression compiled, final Mapper mapper)
+			throws InvalidExpression {
+		final int tokens = compiled.getTokenCount();
+		final StringBuilder[] parts = new StringBuilder[(tokens + chunkSize - 1) / chunkSize];
+		final String[] values = compiled.hasRepeated() ? new String[compiled.getSlotCount()] : null;
+		try {
+			if (values != null) {
+				pool.invoke(new SlotTask(compiled, mapper, values, 0, values.length));
+			}
+			pool.invoke(new ChunkTask(compiled, mapper, values, parts, 0, parts.length));
+		} catch (ChunkException e) {
+			throw e.getCause();
+		}
+		return parts;
+	}
+
+	private final class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 42L;
+		private final CompiledExpression compiled;
+		private final Mapper mapper;
+		private final String[] values;
+		private final StringBuilder[] parts;
+		private final int from;
+		private final int to;
+
+		ChunkTask(final CompiledExpression compiled, final Mapper mapper, final String[] values,
+				final StringBuilder[] parts, final int from, final int to) {
+			this.compiled = compiled;
+			this.mapper = mapper;
+			this.values = values;
+			this.parts = parts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) == 1) {
+				final int begin = from * chunkSize;
+				final int end = Math.min(begin + chunkSize, compiled.getTokenCount());
+				final StringBuilder sb = new StringBuilder();
+				try {
+					compiled.eval(sb, begin, end, mapper, values);
+				} catch (InvalidExpression e) {
+					throw new ChunkException(e);
+				}
+				parts[from] = sb;
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new ChunkTask(compiled, mapper, values, parts, from, mid),
+					new ChunkTask(compiled, mapper, values, parts, mid, to));
+		}
+	}
+
+	/**
+	 * Map distinct names, each task maps up to chunkSize slots
+	 */
+	private final class SlotTask extends RecursiveAction {
+		private static final long serialVersionUID = 42L;
+		private final CompiledExpression compiled;
+		private final Mapper mapper;
+		private final String[] values;
+		private final int from;
+		private final int to;
+
+		SlotTask(final CompiledExpression compiled, final Mapper mapper, final String[] values,
+				final int from, final int to) {
+			this.compiled = compiled;
+			this.mapper = mapper;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) <= chunkSize) {
+				try {
+					for (int i = from; i < to; i++) {
+						values[i] = compiled.mapSlot(i, mapper);
+					}
+				} catch (InvalidExpression e) {
+					throw new ChunkException(e);
+				}
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new SlotTask(compiled, mapper, values, from, mid),
+					new SlotTask(compiled, mapper, values, mid, to));
+		}
+	}
+
+	private static final class ChunkException extends RuntimeException {
+		private static final long serialVersionUID = 42L;
+
+		ChunkException(final InvalidExpression cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized InvalidExpression getCause() {
+			return (InvalidExpression) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Evaluate expressions in a single pass resolving nested placeholders (like <code>${a.${b}}</code>, the
+ * inner name is evaluated first) and mapped values that contain placeholders. Values are parsed once and
+ * kept in a bounded cache, each found name is mapped and resolved once per eval, and cyclic references or
+ * resolutions deeper than max depth fail with {@link InvalidExpression}.
+ *
+ * @threadSafe true (once configured)
+ */
+public class RecursiveEvaluator {
+	private static final int DEFAULT_MAX_DEPTH = 16;
+	private static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private String beginToken = "${";
+	private String endToken = "}";
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	private Templates templates = new Templates(DEFAULT_CACHE_SIZE);
+
+	/**
+	 * Set delimiters for parsing (default are ${ }), cached templates are discarded
+	 *
+	 * @param beginToken (default &quot;${&quot;)
+	 * @param endToken (default &quot;}&quot;)
+	 * @return self
+	 */
+	public RecursiveEvaluator setDelimiters(final String beginToken, final String endToken) {
+		if (beginToken.isEmpty() || endToken.isEmpty())
+			throw new IllegalArgumentException("Invalid delimiters (empty)");
+		this.beginToken = beginToken;
+		this.endToken = endToken;
+		this.templates = new Templates(templates.maxSize);
+		return this;
+	}
+
+	/**
+	 * Get begin delimiter
+	 *
+	 * @return beginToken
+	 */
+	public String getBeginToken() {
+		return beginToken;
+	}
+
+	/**
+	 * Get end delimiter
+	 *
+	 * @return endToken
+	 */
+	public String getEndToken() {
+		return endToken;
+	}
+
+	/**
+	 * Set maximum depth of value resolution (a value containing placeholders is one level deeper)
+	 *
+	 * @param maxDepth (default 16)
+	 * @return self
+	 */
+	public RecursiveEvaluator setMaxDepth(final int maxDepth) {
+		if (maxDepth <= 0)
+			throw new IllegalArgumentException("Invalid maxDepth: " + maxDepth);
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * Set maximum number of parsed expressions and values retained, cached templates are discarded
+	 *
+	 * @param cacheSize (default 1024)
+	 * @return self
+	 */
+	public RecursiveEvaluator setCacheSize(final int cacheSize) {
+		if (cacheSize <= 0)
+			throw new IllegalArgumentException("Invalid cacheSize: " + cacheSize);
+		this.templates = new Templates(cacheSize);
+		return this;
+	}
+
+	/**
+	 * Evaluate expression
+	 *
+	 * @param expression to evaluate
+	 * @param mapper for parameters (can be null)
+	 * @return evaluated expression
+	 * @throws InvalidExpression if expression is invalid, cyclic or too deep
+	 */
+	public String eval(final String expression, final Mapper mapper) throws InvalidExpression {
+		final StringBuilder out = new StringBuilder();
+		eval(expression, out, mapper);
+		return out.toString();
+	}
+
+	/**
+	 * Evaluate expression and write to Appendable
+	 *
+	 * @param expression to evaluate
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid, cyclic or too deep
+	 * @throws IOException if io fail
+	 */
+	public void eval(final String expression, final Appendable out, final Mapper mapper)
+			throws InvalidExpression, IOException {
+		out.append(eval(expression, mapper));
+	}
+
+	/**
+	 * Evaluate expression and write to StringBuilder
+	 *
+	 * @param expression to evaluate
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid, cyclic or too deep
+	 */
+	public void eval(final String expression, final StringBuilder out, final Mapper mapper)
+			throws InvalidExpression {
+		if (expression == null)
+			throw new InvalidExpression("Null Expression", 0);
+		final Context ctx = new Context(beginToken, endToken, maxDepth, templates, mapper);
+		render(ctx.template(expression), out, ctx);
+	}
+
+	private static final void render(final Object[] template, final StringBuilder out, final Context ctx)
+			throws InvalidExpression {
+		for (final Object part : template) {
+			if (part instanceof String) {
+				out.append((String) part);
+			} else {
+				final Placeholder p = (Placeholder) part;
+				String name = p.name;
+				if (name == null) {
+					final StringBuilder sb = new StringBuilder();
+					render(p.nameTemplate, sb, ctx);
+					name = sb.toString();
+				}
+				resolve(name, out, ctx);
+			}
+		}
+	}
+
+	private static final void resolve(final String name, final StringBuilder out, final Context ctx)
+			throws InvalidExpression {
+		if (name.isEmpty())
+			throw new InvalidExpression("Invalid name (empty)", 0);
+		final String memo = ctx.resolved.get(name);
+		if (memo != null) {
+			out.append(memo);
+			return;
+		}
+		final String value = ((ctx.mapper == null) ? null : ctx.mapper.map(name));
+		if (value == null) {
+			out.append(name);
+			return;
+		}
+		if (value.indexOf(ctx.beginToken) < 0) {
+			ctx.resolved.put(name, value);
+			out.append(value);
+			return;
+		}
+		final ArrayList<String> stack = ctx.stack;
+		if (stack.contains(name))
+			throw new InvalidExpression("Cyclic reference: " + path(stack, name), 0);
+		if (stack.size() >= ctx.maxDepth)
+			throw new InvalidExpression("Max depth exceeded (" + ctx.maxDepth + "): " + path(stack, name), 0);
+		final int start = out.length();
+		stack.add(name);
+		render(ctx.template(value), out, ctx);
+		stack.remove(stack.size() - 1);
+		ctx.resolved.put(name, out.substring(start));
+	}
+
+	private static final String path(final ArrayList<String> stack, final String name) {
+		final StringBuilder sb = new StringBuilder();
+		for (final String s : stack) {
+			sb.append(s).append(" -> ");
+		}
+		return sb.append(name).toString();
+	}
+
+	/**
+	 * Parse range of expression, nested delimiters are balanced
+	 *
+	 * @return parts (String literal or Placeholder)
+	 */
+	private static final Object[] parse(final String expression, final int from, final int to,
+			final String beginToken, final String endToken) throws InvalidExpression {
+		final ArrayList<Object> parts = new ArrayList<Object>();
+		final int beginTokenLen = beginToken.length();
+		final int endTokenLen = endToken.length();
+		int last = from;
+		while (last < to) {
+			final int begin = indexOf(expression, beginToken, last, to);
+			if (begin < 0)
+				break;
+			final int nameBegin = begin + beginTokenLen;
+			int nameEnd = -1;
+			int depth = 1, i = nameBegin;
+			while (depth > 0) {
+				final int nextEnd = indexOf(expression, endToken, i, to);
+				if (nextEnd < 0) {
+					throw new InvalidExpression("Not well ended expression: " + //
+							expression.substring(nameBegin, to), begin);
+				}
+				final int nextBegin = indexOf(expression, beginToken, i, nextEnd);
+				if (nextBegin >= 0) {
+					depth++;
+					i = nextBegin + beginTokenLen;
+				} else {
+					depth--;
+					nameEnd = nextEnd;
+					i = nextEnd + endTokenLen;
+				}
+			}
+			if (nameEnd == nameBegin)
+				throw new InvalidExpression("Invalid name (empty)", nameBegin);
+			if (last < begin)
+				parts.add(expression.substring(last, begin));
+			if (indexOf(expression, beginToken, nameBegin, nameEnd) < 0) {
+				parts.add(new Placeholder(expression.substring(nameBegin, nameEnd), null));
+			} else {
+				parts.add(new Placeholder(null, //
+						parse(expression, nameBegin, nameEnd, beginToken, endToken)));
+			}
+			last = nameEnd + endTokenLen;
+		}
+		if (last < to)
+			parts.add(expression.substring(last, to));
+		return parts.toArray();
+	}
+
+	/**
+	 * Find token fully contained in <code>[from, to)</code>
+	 */
+	private static final int indexOf(final String s, final String token, final int from, final int to) {
+		final int i = s.indexOf(token, from);
+		return ((i < 0) || (i + token.length() > to)) ? -1 : i;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [beginToken=" + beginToken + " endToken=" + endToken + " maxDepth="
+				+ maxDepth + "]";
+	}
+
+	private static final class Placeholder {
+		/**
+		 * Static name (null if nested)
+		 */
+		final String name;
+		/**
+		 * Parts of nested name (null if static)
+		 */
+		final Object[] nameTemplate;
+
+		Placeholder(final String name, final Object[] nameTemplate) {
+			this.name = name;
+			this.nameTemplate = nameTemplate;
+		}
+	}
+
+	/**
+	 * State of a single eval
+	 */
+	private static final class Context {
+		final String beginToken;
+		final String endToken;
+		final int maxDepth;
+		final Templates templates;
+		final Mapper mapper;
+		/**
+		 * Names being resolved (outermost first)
+		 */
+		final ArrayList<String> stack = new ArrayList<String>();
+		/**
+		 * Fully resolved values of found names
+		 */
+		final HashMap<String, String> resolved = new HashMap<String, String>();
+
+		Context(final String beginToken, final String endToken, final int maxDepth, final Templates templates,
+				final Mapper mapper) {
+			this.beginToken = beginToken;
+			this.endToken = endToken;
+			this.maxDepth = maxDepth;
+			this.templates = templates;
+			this.mapper = mapper;
+		}
+
+		Object[] template(final String expression) throws InvalidExpression {
+			Object[] template;
+			synchronized (templates) {
+				template = templates.get(expression);
+			}
+			if (template == null) {
+				template = parse(expression, 0, expression.length(), beginToken, endToken);
+				synchronized (templates) {
+					templates.put(expression, template);
+				}
+			}
+			return template;
+		}
+	}
+
+	private static final class Templates extends LinkedHashMap<String, Object[]> {
+		private static final long serialVersionUID = 42L;
+		final int maxSize;
+
+		Templates(final int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Object[]> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generate {@link SlotRenderer} classes: a single method with a straight-line chain of
+ * {@link StringBuilder#append(String)}, literals as constants and values loaded by slot. Classfile is
+ * written by hand (version 50, no branches so no stack map frames) and defined in its own ClassLoader, so it
+ * is unloaded with the expression.
+ * <p>
+ * System properties: <code>org.javastack.mapexpression.codegen</code> (true to enable, disabled by
+ * default) and <code>org.javastack.mapexpression.codegen.threshold</code> (evals before generating, default
+ * 10000).
+ */
+final class RendererGenerator {
+	static final boolean ENABLED = Boolean.getBoolean("org.javastack.mapexpression.codegen");
+	static final int THRESHOLD = Integer.getInteger("org.javastack.mapexpression.codegen.threshold", 10000);
+	/**
+	 * HotSpot does not JIT-compile bigger methods (HugeMethodLimit), interpreter loop is faster then
+	 */
+	private static final int MAX_CODE_LENGTH = 8000;
+	private static final int MAX_CONSTANTS = 65535;
+	private static final String PACKAGE = "org/javastack/mapexpression/generated/";
+	private static final String SB = "java/lang/StringBuilder";
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private RendererGenerator() {
+	}
+
+	/**
+	 * Generate renderer
+	 * 
+	 * @param parts String (literal) or Integer (slot)
+	 * @return renderer or null if parts can not be generated
+	 */
+	static SlotRenderer generate(final Object[] parts) {
+		final String name = PACKAGE + "Renderer" + counter.incrementAndGet();
+		try {
+			final byte[] b = build(name, parts);
+			if (b == null)
+				return null;
+			final Loader loader = new Loader(SlotRenderer.class.getClassLoader());
+			return (SlotRenderer) loader.define(name.replace('/', '.'), b).getConstructor().newInstance();
+		} catch (IOException e) {
+			return null;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	private static final byte[] build(final String name, final Object[] parts) throws IOException {
+		final ConstantPool cp = new ConstantPool();
+		final int thisClass = cp.classRef(name);
+		final int superClass = cp.classRef("java/lang/Object");
+		final int iface = cp.classRef(SlotRenderer.class.getName().replace('.', '/'));
+		final int initName = cp.utf8("<init>");
+		final int initDesc = cp.utf8("()V");
+		final int superInit = cp.methodRef(superClass, "<init>", "()V");
+		final int renderName = cp.utf8("render");
+		final int renderDesc = cp.utf8("(L" + SB + ";[Ljava/lang/String;)V");
+		final int codeName = cp.utf8("Code");
+		final int append = cp.methodRef(cp.classRef(SB), "append", "(Ljava/lang/String;)L" + SB + ";");
+		// render(StringBuilder out, String[] values): out.append(..).append(values[n])...
+		final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+		final DataOutputStream code = new DataOutputStream(codeBytes);
+		code.writeByte(0x2B); // aload_1
+		for (final Object part : parts) {
+			if (part instanceof String) {
+				final int idx = cp.string((String) part);
+				if (idx < 256) {
+					code.writeByte(0x12); // ldc
+					code.writeByte(idx);
+				} else {
+					code.writeByte(0x13); // ldc_w
+					code.writeShort(idx);
+				}
+			} else {
+				final int slot = ((Integer) part).intValue();
+				code.writeByte(0x2C); // aload_2
+				if (slot <= 5) {
+					code.writeByte(0x03 + slot); // iconst_n
+				} else if (slot <= Byte.MAX_VALUE) {
+					code.writeByte(0x10); // bipush
+					code.writeByte(slot);
+				} else if (slot <= Short.MAX_VALUE) {
+					code.writeByte(0x11); // sipush
+					code.writeShort(slot);
+				} else {
+					return null;
+				}
+				code.writeByte(0x32); // aaload
+			}
+			code.writeByte(0xB6); // invokevirtual
+			code.writeShort(append);
+			if ((code.size() > MAX_CODE_LENGTH) || (cp.count > MAX_CONSTANTS))
+				return null;
+		}
+		code.writeByte(0x57); // pop
+		code.writeByte(0xB1); // return
+		// Class file
+		final ByteArrayOutputStream classBytes = new ByteArrayOutputStream(codeBytes.size() + cp.size()
+				+ 128);
+		final DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor
+		out.writeShort(50); // major (Java 6)
+		out.writeShort(cp.count);
+		cp.writeTo(out);
+		out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1); // interfaces
+		out.writeShort(iface);
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+		// public <init>() { super(); }
+		out.writeShort(0x0001);
+		out.writeShort(initName);
+		out.writeShort(initDesc);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + 5);
+		out.writeShort(1); // max_stack
+		out.writeShort(1); // max_locals
+		out.writeInt(5);
+		out.writeByte(0x2A); // aload_0
+		out.writeByte(0xB7); // invokespecial
+		out.writeShort(superInit);
+		out.writeByte(0xB1); // return
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+		// public void render(StringBuilder, String[])
+		out.writeShort(0x0001);
+		out.writeShort(renderName);
+		out.writeShort(renderDesc);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + codeBytes.size());
+		out.writeShort(3); // max_stack
+		out.writeShort(3); // max_locals
+		out.writeInt(codeBytes.size());
+		codeBytes.writeTo(out);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+		out.writeShort(0); // class attributes
+		out.flush();
+		return classBytes.toByteArray();
+	}
+
+	private static final class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+		/**
+		 * Next index (constant pool count)
+		 */
+		int count = 1;
+
+		int utf8(final String s) throws IOException {
+			final String key = "U" + s;
+			final Integer idx = entries.get(key);
+			if (idx != null)
+				return idx.intValue();
+			out.writeByte(1); // CONSTANT_Utf8
+			out.writeUTF(s); // modified UTF-8, fails if too long
+			return add(key);
+		}
+
+		int classRef(final String internalName) throws IOException {
+			final String key = "C" + internalName;
+			final Integer idx = entries.get(key);
+			if (idx != null)
+				return idx.intValue();
+			final int nameIdx = utf8(internalName);
+			out.writeByte(7); // CONSTANT_Class
+			out.writeShort(nameIdx);
+			return add(key);
+		}
+
+		int string(final String s) throws IOException {
+			final String key = "S" + s;
+			final Integer idx = entries.get(key);
+			if (idx != null)
+				return idx.intValue();
+			final int utf8Idx = utf8(s);
+			out.writeByte(8); // CONSTANT_String
+			out.writeShort(utf8Idx);
+			return add(key);
+		}
+
+		int methodRef(final int classIdx, final String name, final String desc) throws IOException {
+			final int nameIdx = utf8(name);
+			final int descIdx = utf8(desc);
+			out.writeByte(12); // CONSTANT_NameAndType
+			out.writeShort(nameIdx);
+			out.writeShort(descIdx);
+			final int natIdx = count++;
+			out.writeByte(10); // CONSTANT_Methodref
+			out.writeShort(classIdx);
+			out.writeShort(natIdx);
+			return count++;
+		}
+
+		private final int add(final String key) {
+			final int idx = count++;
+			entries.put(key, Integer.valueOf(idx));
+			return idx;
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		void writeTo(final DataOutputStream dst) throws IOException {
+			out.flush();
+			bytes.writeTo(dst);
+		}
+	}
+
+	private static final class Loader extends ClassLoader {
+		Loader(final ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(final String name, final byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+/**
+ * Renderer of a {@link CompiledExpression} with resolved values, implemented by generated classes (public
+ * only because generated classes are defined in their own ClassLoader).
+ */
+public interface SlotRenderer {
+	/**
+	 * Write literals and values to output
+	 * 
+	 * @param out destination
+	 * @param values by slot, see {@link CompiledExpression#getNames()}
+	 */
+	public void render(final StringBuilder out, final String[] values);
+}
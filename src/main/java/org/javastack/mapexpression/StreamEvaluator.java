@@ -0,0 +1,247 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Evaluate templates from a stream without loading them in memory, only one buffer and the longest
+ * placeholder are held. Delimiters are matched like {@link CompiledExpression#compile(String, String,
+ * String, Mapper)} (including overlapping begin delimiters), also when split between reads.
+ *
+ * @threadSafe true (once configured, each eval uses its own buffers)
+ */
+public class StreamEvaluator {
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final int DEFAULT_MAX_NAME_LENGTH = 1024;
+
+	private String beginToken = "${";
+	private String endToken = "}";
+	private int[] beginFail = failure(beginToken);
+	private int[] endFail = failure(endToken);
+	private boolean beginRepeated = isRepeated(beginToken);
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int maxNameLength = DEFAULT_MAX_NAME_LENGTH;
+
+	/**
+	 * Set delimiters for parsing (default are ${ })
+	 *
+	 * @param beginToken (default &quot;${&quot;)
+	 * @param endToken (default &quot;}&quot;)
+	 * @return self
+	 */
+	public StreamEvaluator setDelimiters(final String beginToken, final String endToken) {
+		if (beginToken.isEmpty() || endToken.isEmpty())
+			throw new IllegalArgumentException("Invalid delimiters (empty)");
+		this.beginToken = beginToken;
+		this.endToken = endToken;
+		this.beginFail = failure(beginToken);
+		this.endFail = failure(endToken);
+		this.beginRepeated = isRepeated(beginToken);
+		return this;
+	}
+
+	/**
+	 * Set size (in chars) of read buffer
+	 *
+	 * @param bufferSize (default 8192)
+	 * @return self
+	 */
+	public StreamEvaluator setBufferSize(final int bufferSize) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Invalid bufferSize: " + bufferSize);
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * Set maximum length of placeholder names, longer placeholders are rejected
+	 *
+	 * @param maxNameLength (default 1024)
+	 * @return self
+	 */
+	public StreamEvaluator setMaxNameLength(final int maxNameLength) {
+		if (maxNameLength <= 0)
+			throw new IllegalArgumentException("Invalid maxNameLength: " + maxNameLength);
+		this.maxNameLength = maxNameLength;
+		return this;
+	}
+
+	/**
+	 * Evaluate template from ReadableByteChannel and write to OutputStream, both using specified Charset
+	 *
+	 * @param in source template
+	 * @param charset used for decoding and encoding
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final ReadableByteChannel in, final Charset charset, final OutputStream out,
+			final Mapper mapper) throws InvalidExpression, IOException {
+		final Reader reader = Channels.newReader(in, charset.newDecoder() //
+				.onMalformedInput(CodingErrorAction.REPLACE) //
+				.onUnmappableCharacter(CodingErrorAction.REPLACE), bufferSize);
+		final Writer writer = new OutputStreamWriter(out, charset);
+		eval(reader, writer, mapper);
+		writer.flush();
+	}
+
+	/**
+	 * Evaluate template from Reader and write to Writer
+	 *
+	 * @param in source template
+	 * @param out destination
+	 * @param mapper for parameters (can be null)
+	 * @throws InvalidExpression if expression is invalid
+	 * @throws IOException if io fail
+	 */
+	public void eval(final Reader in, final Writer out, final Mapper mapper) throws InvalidExpression,
+			IOException {
+		final String beginToken = this.beginToken;
+		final String endToken = this.endToken;
+		final int[] beginFail = this.beginFail;
+		final int[] endFail = this.endFail;
+		final boolean beginRepeated = this.beginRepeated;
+		final int beginTokenLen = beginToken.length();
+		final int endTokenLen = endToken.length();
+		final int maxPending = maxNameLength + endTokenLen;
+		final char[] buf = new char[bufferSize];
+		final StringBuilder name = new StringBuilder();
+		boolean inName = false;
+		// Chars of delimiter matched so far (prefix), in literal mode these are held back from output
+		int matched = 0;
+		// Absolute offset of buf[0] and of current placeholder begin delimiter
+		long offset = 0, nameOffset = 0;
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			// Literal pending output: beginToken[0..carried) + buf[segStart..]
+			int carried = matched, segStart = 0;
+			for (int i = 0; i < n; i++) {
+				final char c = buf[i];
+				if (!inName) {
+					while ((matched > 0) && (c != beginToken.charAt(matched))) {
+						matched = beginFail[matched - 1];
+					}
+					if (c == beginToken.charAt(matched))
+						matched++;
+					if (matched == beginTokenLen) {
+						writePending(out, beginToken, carried, buf, segStart, //
+								carried + (i + 1 - segStart) - beginTokenLen);
+						nameOffset = offset + i + 1 - beginTokenLen;
+						inName = true;
+						matched = 0;
+					}
+				} else if (beginRepeated && (name.length() == 0) && (c == beginToken.charAt(0))) {
+					// Overlapping begin delimiter (like {{{ with {{), placeholder starts one char later
+					out.write(c);
+					nameOffset++;
+				} else {
+					name.append(c);
+					while ((matched > 0) && (c != endToken.charAt(matched))) {
+						matched = endFail[matched - 1];
+					}
+					if (c == endToken.charAt(matched))
+						matched++;
+					if (matched == endTokenLen) {
+						name.setLength(name.length() - endTokenLen);
+						writeValue(out, name, nameOffset + beginTokenLen, mapper);
+						name.setLength(0);
+						inName = false;
+						matched = 0;
+						carried = 0;
+						segStart = i + 1;
+					} else if (name.length() > maxPending) {
+						throw new InvalidExpression("Placeholder too long (max " + maxNameLength + ")",
+								toOffset(nameOffset));
+					}
+				}
+			}
+			if (!inName) {
+				writePending(out, beginToken, carried, buf, segStart, carried + (n - segStart) - matched);
+			}
+			offset += n;
+		}
+		if (inName) {
+			throw new InvalidExpression("Not well ended expression: " + name, toOffset(nameOffset));
+		}
+		out.write(beginToken, 0, matched);
+	}
+
+	/**
+	 * Write first <code>count</code> chars of pending literal (<code>head[0..carried)</code> +
+	 * <code>buf[segStart..]</code>)
+	 */
+	private static final void writePending(final Writer out, final String head, final int carried,
+			final char[] buf, final int segStart, final int count) throws IOException {
+		if (count <= 0)
+			return;
+		if (count <= carried) {
+			out.write(head, 0, count);
+		} else {
+			out.write(head, 0, carried);
+			out.write(buf, segStart, count - carried);
+		}
+	}
+
+	private static final void writeValue(final Writer out, final StringBuilder name, final long offset,
+			final Mapper mapper) throws InvalidExpression, IOException {
+		if (name.length() == 0)
+			throw new InvalidExpression("Invalid name (empty)", toOffset(offset));
+		out.write(CompiledExpression.mapTokenPost(name.toString(), mapper));
+	}
+
+	private static final int toOffset(final long offset) {
+		return (int) Math.min(offset, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Check if all chars are equal, only then a begin delimiter can overlap the next one by all but one char
+	 */
+	private static final boolean isRepeated(final String s) {
+		for (int i = 1; i < s.length(); i++) {
+			if (s.charAt(i) != s.charAt(0))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * KMP failure function: length of the longest proper prefix of <code>s[0..i]</code> that is also a
+	 * suffix
+	 */
+	private static final int[] failure(final String s) {
+		final int[] fail = new int[s.length()];
+		for (int i = 1, k = 0; i < s.length(); i++) {
+			while ((k > 0) && (s.charAt(i) != s.charAt(k))) {
+				k = fail[k - 1];
+			}
+			if (s.charAt(i) == s.charAt(k))
+				k++;
+			fail[i] = k;
+		}
+		return fail;
+	}
+}
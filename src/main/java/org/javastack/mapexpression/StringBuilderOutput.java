@@ -0,0 +1,53 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import org.javastack.mapexpression.mapper.ValueOutput;
+
+/**
+ * ValueOutput appending to StringBuilder
+ */
+final class StringBuilderOutput implements ValueOutput {
+	private final StringBuilder out;
+
+	StringBuilderOutput(final StringBuilder out) {
+		this.out = out;
+	}
+
+	@Override
+	public void append(final CharSequence value) {
+		out.append(value);
+	}
+
+	@Override
+	public void append(final long value) {
+		out.append(value);
+	}
+
+	@Override
+	public void append(final int value) {
+		out.append(value);
+	}
+
+	@Override
+	public void append(final double value) {
+		out.append(value);
+	}
+
+	@Override
+	public void append(final boolean value) {
+		out.append(value);
+	}
+}
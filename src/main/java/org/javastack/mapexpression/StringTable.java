@@ -0,0 +1,81 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Strings of a binary stream, each distinct String is written once and later occurrences are written as
+ * index of first one. An instance is used for a single stream and direction.
+ */
+final class StringTable {
+	private static final int NEW_UTF = -1;
+	private static final int NEW_CHARS = -2;
+	/**
+	 * Longest String that always fits in {@link DataOutputStream#writeUTF(String)} (3 bytes per char)
+	 */
+	private static final int MAX_UTF = 65535 / 3;
+
+	private final HashMap<String, Integer> written = new HashMap<String, Integer>();
+	private final ArrayList<String> read = new ArrayList<String>();
+
+	void write(final DataOutputStream out, final String s) throws IOException {
+		final Integer idx = written.get(s);
+		if (idx != null) {
+			out.writeInt(idx.intValue());
+			return;
+		}
+		written.put(s, Integer.valueOf(written.size()));
+		if (s.length() <= MAX_UTF) {
+			out.writeInt(NEW_UTF);
+			out.writeUTF(s);
+		} else {
+			out.writeInt(NEW_CHARS);
+			out.writeInt(s.length());
+			out.writeChars(s);
+		}
+	}
+
+	String read(final DataInputStream in) throws IOException {
+		final int idx = in.readInt();
+		final String s;
+		switch (idx) {
+			case NEW_UTF:
+				s = in.readUTF();
+				break;
+			case NEW_CHARS: {
+				final int len = in.readInt();
+				if (len < 0)
+					throw new IOException("Invalid string length: " + len);
+				final char[] chars = new char[len];
+				for (int i = 0; i < len; i++) {
+					chars[i] = in.readChar();
+				}
+				s = new String(chars);
+				break;
+			}
+			default:
+				if ((idx < 0) || (idx >= read.size()))
+					throw new IOException("Invalid string reference: " + idx);
+				return read.get(idx);
+		}
+		read.add(s);
+		return s;
+	}
+}
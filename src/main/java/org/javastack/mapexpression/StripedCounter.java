@@ -0,0 +1,71 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of counters split in rows selected by thread id, so concurrent threads rarely update the same row.
+ * Each row holds all counters of the set and rows are padded to separate cache lines, so updates of
+ * different threads do not share lines.
+ *
+ * @threadSafe true
+ */
+final class StripedCounter {
+	private static final int STRIPES = stripes();
+	/**
+	 * Longs per cache line (64 bytes), also padding between rows
+	 */
+	private static final int LINE = 8;
+
+	private final int stride;
+	private final AtomicLongArray cells;
+
+	/**
+	 * Create set of counters
+	 *
+	 * @param counters number of counters
+	 */
+	StripedCounter(final int counters) {
+		this.stride = ((counters + LINE - 1) / LINE * LINE) + LINE;
+		this.cells = new AtomicLongArray(STRIPES * stride);
+	}
+
+	private static final int stripes() {
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		int n = 1;
+		while ((n < cpus) && (n < 16)) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	void add(final int counter, final long x) {
+		final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		cells.addAndGet((stripe * stride) + counter, x);
+	}
+
+	void increment(final int counter) {
+		add(counter, 1);
+	}
+
+	long sum(final int counter) {
+		long sum = 0;
+		for (int i = counter; i < cells.length(); i += stride) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+}
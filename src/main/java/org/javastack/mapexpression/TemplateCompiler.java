@@ -0,0 +1,245 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.javastack.mapexpression.mapper.Mapper;
+
+/**
+ * Compile many named templates at once (from a Map, Properties or a directory of files) into an
+ * {@link ExpressionRegistry}. Templates are parsed in parallel on a ForkJoinPool, then equal Strings
+ * (literals, names and defaults) are shared across all templates.
+ *
+ * @threadSafe true (once configured)
+ */
+public class TemplateCompiler {
+	private static final int DEFAULT_CHUNK_SIZE = 16;
+
+	private CompileOptions options = CompileOptions.DEFAULT;
+	private Mapper preMapper = null;
+	private ForkJoinPool pool = null;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Set compile options
+	 *
+	 * @param options delimiters, escape, default separator and missing policy
+	 * @return self
+	 */
+	public TemplateCompiler setOptions(final CompileOptions options) {
+		if (options == null)
+			throw new IllegalArgumentException("Invalid options: null");
+		this.options = options;
+		return this;
+	}
+
+	/**
+	 * Set mapper applied on parse, must be thread-safe if pool is set
+	 *
+	 * @param preMapper mapper for parameters applied on parse (can be null)
+	 * @return self
+	 */
+	public TemplateCompiler setPreMapper(final Mapper preMapper) {
+		this.preMapper = preMapper;
+		return this;
+	}
+
+	/**
+	 * Set pool used for parsing
+	 *
+	 * @param pool for parallel parsing (null parse serially)
+	 * @return self
+	 */
+	public TemplateCompiler setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Set number of templates parsed by each task
+	 *
+	 * @param chunkSize (default 16)
+	 * @return self
+	 */
+	public TemplateCompiler setChunkSize(final int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Invalid chunkSize: " + chunkSize);
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Compile templates
+	 *
+	 * @param templates name to expression
+	 * @return registry (in iteration order of templates)
+	 * @throws InvalidExpression if any expression is wrong (message is prefixed with template name)
+	 */
+	public ExpressionRegistry compile(final Map<String, String> templates) throws InvalidExpression {
+		final int count = templates.size();
+		final String[] names = new String[count];
+		final String[] expressions = new String[count];
+		int i = 0;
+		for (final Map.Entry<String, String> e : templates.entrySet()) {
+			names[i] = e.getKey();
+			expressions[i] = e.getValue();
+			i++;
+		}
+		final CompiledExpression[] compiled = new CompiledExpression[count];
+		final CompileTask task = new CompileTask(names, expressions, compiled, 0, count);
+		if (pool == null) {
+			task.compile();
+		} else {
+			try {
+				pool.invoke(task);
+			} catch (CompileException e) {
+				throw e.getCause();
+			}
+		}
+		final HashMap<String, String> strings = new HashMap<String, String>();
+		final LinkedHashMap<String, CompiledExpression> registry = //
+				new LinkedHashMap<String, CompiledExpression>(count * 4 / 3 + 1);
+		for (i = 0; i < count; i++) {
+			registry.put(names[i], compiled[i].intern(strings));
+		}
+		return new ExpressionRegistry(registry);
+	}
+
+	/**
+	 * Compile templates from Properties (including defaults)
+	 *
+	 * @param templates name to expression
+	 * @return registry (sorted by name)
+	 * @throws InvalidExpression if any expression is wrong (message is prefixed with template name)
+	 */
+	public ExpressionRegistry compile(final Properties templates) throws InvalidExpression {
+		final TreeMap<String, String> map = new TreeMap<String, String>();
+		for (final String name : templates.stringPropertyNames()) {
+			map.put(name, templates.getProperty(name));
+		}
+		return compile(map);
+	}
+
+	/**
+	 * Compile every file of directory (and subdirectories), named by path relative to directory with
+	 * <code>/</code> separators
+	 *
+	 * @param directory of templates
+	 * @param charset of files
+	 * @return registry (sorted by name)
+	 * @throws InvalidExpression if any expression is wrong (message is prefixed with template name)
+	 * @throws IOException if io fail
+	 */
+	public ExpressionRegistry compile(final File directory, final Charset charset) throws InvalidExpression,
+			IOException {
+		if (!directory.isDirectory())
+			throw new IOException("Not a directory: " + directory);
+		final TreeMap<String, String> map = new TreeMap<String, String>();
+		read(directory, "", charset, map);
+		return compile(map);
+	}
+
+	private static final void read(final File directory, final String prefix, final Charset charset,
+			final TreeMap<String, String> map) throws IOException {
+		final File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Unable to list directory: " + directory);
+		Arrays.sort(files);
+		for (final File file : files) {
+			final String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				read(file, name + "/", charset, map);
+			} else if (file.isFile()) {
+				map.put(name, new String(Files.readAllBytes(file.toPath()), charset));
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [options=" + options + " pool=" + pool + " chunkSize=" + chunkSize + "]";
+	}
+
+	private final class CompileTask extends RecursiveAction {
+		private static final long serialVersionUID = 42L;
+		private final String[] names;
+		private final String[] expressions;
+		private final CompiledExpression[] compiled;
+		private final int from;
+		private final int to;
+
+		CompileTask(final String[] names, final String[] expressions, final CompiledExpression[] compiled,
+				final int from, final int to) {
+			this.names = names;
+			this.expressions = expressions;
+			this.compiled = compiled;
+			this.from = from;
+			this.to = to;
+		}
+
+		void compile() throws InvalidExpression {
+			for (int i = from; i < to; i++) {
+				final String expression = expressions[i];
+				if (expression == null)
+					throw new InvalidExpression(names[i] + ": Null Expression", 0);
+				try {
+					compiled[i] = CompiledExpression.compile(expression, options, preMapper);
+				} catch (InvalidExpression e) {
+					throw new InvalidExpression(names[i] + ": " + e.getMessage(), e.getErrorOffset());
+				}
+			}
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) <= chunkSize) {
+				try {
+					compile();
+				} catch (InvalidExpression e) {
+					throw new CompileException(e);
+				}
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new CompileTask(names, expressions, compiled, from, mid),
+					new CompileTask(names, expressions, compiled, mid, to));
+		}
+	}
+
+	private static final class CompileException extends RuntimeException {
+		private static final long serialVersionUID = 42L;
+
+		CompileException(final InvalidExpression cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized InvalidExpression getCause() {
+			return (InvalidExpression) super.getCause();
+		}
+	}
+}
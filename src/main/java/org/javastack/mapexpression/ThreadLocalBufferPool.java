@@ -0,0 +1,80 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+/**
+ * BufferPool retaining one StringBuilder per thread. A buffer acquired while the thread buffer is in use
+ * (nested evals) is new, and buffers bigger than max retained capacity are dropped on release.
+ *
+ * @threadSafe true
+ */
+public class ThreadLocalBufferPool implements BufferPool {
+	private static final int DEFAULT_MAX_RETAINED = 64 * 1024;
+	private static final ThreadLocalBufferPool instance = new ThreadLocalBufferPool(DEFAULT_MAX_RETAINED);
+
+	private final int maxRetained;
+	/**
+	 * Holder of retained buffer (null while acquired)
+	 */
+	private final ThreadLocal<StringBuilder[]> local = new ThreadLocal<StringBuilder[]>() {
+		@Override
+		protected StringBuilder[] initialValue() {
+			return new StringBuilder[1];
+		}
+	};
+
+	/**
+	 * Create pool
+	 * 
+	 * @param maxRetained maximum capacity (in chars) of retained buffers
+	 */
+	public ThreadLocalBufferPool(final int maxRetained) {
+		if (maxRetained < 0)
+			throw new IllegalArgumentException("Invalid maxRetained: " + maxRetained);
+		this.maxRetained = maxRetained;
+	}
+
+	/**
+	 * Get shared pool (max retained 64K chars per thread)
+	 * 
+	 * @return default pool
+	 */
+	public static ThreadLocalBufferPool getInstance() {
+		return instance;
+	}
+
+	@Override
+	public StringBuilder acquire(final int capacity) {
+		final StringBuilder[] holder = local.get();
+		final StringBuilder sb = holder[0];
+		if (sb == null)
+			return new StringBuilder(Math.max(16, capacity));
+		holder[0] = null;
+		sb.setLength(0);
+		sb.ensureCapacity(capacity);
+		return sb;
+	}
+
+	@Override
+	public void release(final StringBuilder buffer) {
+		if (buffer.capacity() <= maxRetained)
+			local.get()[0] = buffer;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [maxRetained=" + maxRetained + "]";
+	}
+}
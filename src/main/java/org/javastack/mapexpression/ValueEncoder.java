@@ -0,0 +1,202 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encode char ranges of Strings using fixed scratch buffers (malformed and unmappable input is replaced,
+ * like {@link String#getBytes(Charset)})
+ *
+ * @threadSafe false
+ */
+final class ValueEncoder {
+	private static final int BUFFER_SIZE = 1024;
+	private static final ThreadLocal<ValueEncoder> local = new ThreadLocal<ValueEncoder>();
+
+	private final Charset charset;
+	private final CharsetEncoder encoder;
+	private final CharBuffer chars;
+	private final ByteBuffer bytes;
+	private boolean inUse = false;
+
+	ValueEncoder(final Charset charset, final int bufferSize) {
+		this.charset = charset;
+		this.encoder = charset.newEncoder() //
+				.onMalformedInput(CodingErrorAction.REPLACE) //
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.chars = CharBuffer.allocate(Math.max(16, bufferSize));
+		this.bytes = ByteBuffer.allocate((int) Math.ceil(chars.capacity() * encoder.maxBytesPerChar()));
+	}
+
+	/**
+	 * Get encoder reused by current thread, must be released after use
+	 *
+	 * @param charset used for encoding
+	 * @return encoder
+	 * @see #release()
+	 */
+	static ValueEncoder acquire(final Charset charset) {
+		ValueEncoder encoder = local.get();
+		if ((encoder == null) || !encoder.charset.equals(charset)) {
+			encoder = new ValueEncoder(charset, BUFFER_SIZE);
+			local.set(encoder);
+		} else if (encoder.inUse) {
+			// Reentrant use (ex: OutputStream rendering other expression), don't share scratch buffers
+			return new ValueEncoder(charset, BUFFER_SIZE);
+		}
+		encoder.inUse = true;
+		return encoder;
+	}
+
+	/**
+	 * Release encoder acquired by current thread
+	 *
+	 * @see #acquire(Charset)
+	 */
+	void release() {
+		inUse = false;
+	}
+
+	Charset charset() {
+		return charset;
+	}
+
+	/**
+	 * Encode range of String and write to OutputStream
+	 *
+	 * @param s source
+	 * @param begin index (inclusive)
+	 * @param end index (exclusive)
+	 * @param out destination
+	 * @throws IOException if io fail
+	 */
+	void write(final String s, final int begin, final int end, final OutputStream out) throws IOException {
+		encoder.reset();
+		chars.clear();
+		bytes.clear();
+		int pos = begin;
+		boolean endOfInput;
+		do {
+			pos = fill(s, pos, end);
+			endOfInput = (pos == end);
+			while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+				drain(out);
+			}
+			chars.compact();
+		} while (!endOfInput);
+		while (encoder.flush(bytes).isOverflow()) {
+			drain(out);
+		}
+		drain(out);
+	}
+
+	/**
+	 * Encode range of String and write to WritableByteChannel
+	 *
+	 * @param s source
+	 * @param begin index (inclusive)
+	 * @param end index (exclusive)
+	 * @param out destination
+	 * @throws IOException if io fail
+	 */
+	void write(final String s, final int begin, final int end, final WritableByteChannel out)
+			throws IOException {
+		encoder.reset();
+		chars.clear();
+		bytes.clear();
+		int pos = begin;
+		boolean endOfInput;
+		do {
+			pos = fill(s, pos, end);
+			endOfInput = (pos == end);
+			while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+				drain(out);
+			}
+			chars.compact();
+		} while (!endOfInput);
+		while (encoder.flush(bytes).isOverflow()) {
+			drain(out);
+		}
+		drain(out);
+	}
+
+	/**
+	 * Encode range of CharSequence into ByteBuffer
+	 *
+	 * @param s source
+	 * @param begin index (inclusive)
+	 * @param end index (exclusive)
+	 * @param out destination
+	 * @throws BufferOverflowException if there is insufficient space in destination
+	 */
+	void encode(final CharSequence s, final int begin, final int end, final ByteBuffer out) {
+		encoder.reset();
+		chars.clear();
+		int pos = begin;
+		boolean endOfInput;
+		do {
+			pos = fill(s, pos, end);
+			endOfInput = (pos == end);
+			if (encoder.encode(chars, out, endOfInput).isOverflow())
+				throw new BufferOverflowException();
+			chars.compact();
+		} while (!endOfInput);
+		final CoderResult cr = encoder.flush(out);
+		if (cr.isOverflow())
+			throw new BufferOverflowException();
+	}
+
+	/**
+	 * Copy chars from source to scratch buffer and flip it for reading
+	 *
+	 * @return next position in source
+	 */
+	private final int fill(final CharSequence s, final int begin, final int end) {
+		final int n = Math.min(end - begin, chars.remaining());
+		if (s instanceof String) {
+			((String) s).getChars(begin, begin + n, chars.array(), chars.arrayOffset() + chars.position());
+			chars.position(chars.position() + n);
+		} else {
+			for (int i = begin; i < begin + n; i++) {
+				chars.put(s.charAt(i));
+			}
+		}
+		chars.flip();
+		return begin + n;
+	}
+
+	private final void drain(final OutputStream out) throws IOException {
+		out.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+		bytes.clear();
+	}
+
+	private final void drain(final WritableByteChannel out) throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+		bytes.clear();
+	}
+}
@@ -0,0 +1,232 @@
+package org.javastack.mapexpression.mapper;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache results of other Mapper. Reads are lock-free, entries can expire after a TTL, null results (not
+ * found) can be cached too, and size is bounded (when full, the oldest inserted entry is removed, with a
+ * common TTL that is also the first to expire). Concurrent misses of same name may invoke wrapped mapper
+ * more than once.
+ *
+ * @threadSafe true
+ */
+public class CachingMapper implements Mapper {
+	private final Mapper mapper;
+	private final int maxSize;
+	private final long ttlNanos;
+	private final long negativeTtlNanos;
+	private final ConcurrentHashMap<String, Entry> cache;
+	/**
+	 * Names in insertion order for eviction, may hold invalidated names (counted in queued)
+	 */
+	private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create cache without expiration, null results are cached
+	 *
+	 * @param mapper to cache
+	 * @param maxSize maximum number of entries
+	 */
+	public CachingMapper(final Mapper mapper, final int maxSize) {
+		this(mapper, maxSize, 0, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Create cache
+	 *
+	 * @param mapper to cache
+	 * @param maxSize maximum number of entries
+	 * @param ttl time to live of found values (zero or negative never expire)
+	 * @param negativeTtl time to live of null results (zero never expire, negative are not cached)
+	 * @param unit of ttl and negativeTtl
+	 */
+	public CachingMapper(final Mapper mapper, final int maxSize, final long ttl, final long negativeTtl,
+			final TimeUnit unit) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Invalid maxSize: " + maxSize);
+		this.mapper = mapper;
+		this.maxSize = maxSize;
+		this.ttlNanos = ((ttl <= 0) ? 0 : unit.toNanos(ttl));
+		this.negativeTtlNanos = ((negativeTtl <= 0) ? negativeTtl : unit.toNanos(negativeTtl));
+		this.cache = new ConcurrentHashMap<String, Entry>(Math.min(maxSize, 1024));
+	}
+
+	@Override
+	public String map(final String input) {
+		final Entry e = cache.get(input);
+		if ((e != null) && !e.isExpired()) {
+			hits.incrementAndGet();
+			return e.value;
+		}
+		misses.incrementAndGet();
+		final long begin = System.nanoTime();
+		final String value = mapper.map(input);
+		final long now = System.nanoTime();
+		loadTime.addAndGet(now - begin);
+		if (value != null) {
+			put(input, new Entry(value, ttlNanos, now));
+		} else if (negativeTtlNanos >= 0) {
+			put(input, new Entry(null, negativeTtlNanos, now));
+		}
+		return value;
+	}
+
+	private final void put(final String name, final Entry entry) {
+		if ((cache.size() >= maxSize) && !cache.containsKey(name)) {
+			evict();
+		}
+		if (cache.put(name, entry) == null) {
+			order.offer(name);
+			queued.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove oldest inserted entry, skipping names already invalidated
+	 */
+	private final void evict() {
+		for (int rebuilt = 0; rebuilt < 2;) {
+			final String name = order.poll();
+			if (name == null) {
+				// Lost by a concurrent rebuild, queue names of cache again
+				rebuild();
+				rebuilt++;
+				continue;
+			}
+			queued.decrementAndGet();
+			if (cache.remove(name) != null) {
+				evictions.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drop invalidated names from queue if it grew over twice the max size
+	 */
+	private final void compact() {
+		if (queued.get() > (maxSize << 1)) {
+			rebuild();
+		}
+	}
+
+	private final void rebuild() {
+		order.clear();
+		queued.set(0);
+		for (final String name : cache.keySet()) {
+			order.offer(name);
+			queued.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove cached value of name
+	 *
+	 * @param name to invalidate
+	 */
+	public void invalidate(final String name) {
+		cache.remove(name);
+		compact();
+	}
+
+	/**
+	 * Remove cached values of names
+	 *
+	 * @param names to invalidate
+	 */
+	public void invalidateAll(final Collection<String> names) {
+		for (final String name : names) {
+			cache.remove(name);
+		}
+		compact();
+	}
+
+	/**
+	 * Remove all cached values
+	 */
+	public void invalidateAll() {
+		cache.clear();
+		order.clear();
+		queued.set(0);
+	}
+
+	/**
+	 * Get current number of entries (including expired not yet removed)
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Get number of lookups found in cache
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of lookups that invoked wrapped mapper
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get total time spent in wrapped mapper
+	 *
+	 * @param unit of result
+	 * @return load time
+	 */
+	public long getLoadTime(final TimeUnit unit) {
+		return unit.convert(loadTime.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get number of entries removed to honor size limit
+	 *
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [size=" + size() + " hits=" + getHits() + " misses=" + getMisses()
+				+ " loadTime=" + getLoadTime(TimeUnit.MILLISECONDS) + "ms evictions=" + getEvictions() + "]";
+	}
+
+	private static final class Entry {
+		final String value;
+		/**
+		 * Deadline in {@link System#nanoTime()} or zero if never expire
+		 */
+		final long expires;
+
+		Entry(final String value, final long ttlNanos, final long now) {
+			this.value = value;
+			// Low bit set so a deadline is never confused with zero
+			this.expires = ((ttlNanos == 0) ? 0 : (now + ttlNanos) | 1);
+		}
+
+		boolean isExpired() {
+			return (expires != 0) && ((System.nanoTime() - expires) >= 0);
+		}
+	}
+}
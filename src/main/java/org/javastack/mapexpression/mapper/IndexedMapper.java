@@ -0,0 +1,15 @@
+package org.javastack.mapexpression.mapper;
+
+/**
+ * Mapper by slot, slots are the positions of placeholder names returned by
+ * {@link org.javastack.mapexpression.CompiledExpression#getNames()}
+ */
+public interface IndexedMapper {
+	/**
+	 * Map slot to value
+	 * 
+	 * @param slot of placeholder name
+	 * @return value or null if not found
+	 */
+	public String map(final int slot);
+}
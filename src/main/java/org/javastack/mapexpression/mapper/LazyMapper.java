@@ -0,0 +1,76 @@
+package org.javastack.mapexpression.mapper;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapper of deferred values, each supplier is invoked only when its name is referenced by the evaluated
+ * expression. Repeated placeholders are mapped once per eval by
+ * {@link org.javastack.mapexpression.CompiledExpression},
+ * {@link org.javastack.mapexpression.EncodedExpression} and
+ * {@link org.javastack.mapexpression.ParallelEvaluator}; to memoize across several evals of one render (or
+ * with stream, mapped file and recursive evaluators) use {@link #scope()}.
+ * 
+ * @threadSafe true (if suppliers are thread-safe)
+ */
+public class LazyMapper implements Mapper {
+	private final ConcurrentHashMap<String, ValueSupplier> suppliers = //
+			new ConcurrentHashMap<String, ValueSupplier>();
+
+	/**
+	 * Register supplier of name (replaces previous)
+	 * 
+	 * @param name of placeholder
+	 * @param supplier of value
+	 * @return self
+	 */
+	public LazyMapper register(final String name, final ValueSupplier supplier) {
+		suppliers.put(name, supplier);
+		return this;
+	}
+
+	/**
+	 * Unregister supplier of name
+	 * 
+	 * @param name of placeholder
+	 * @return self
+	 */
+	public LazyMapper unregister(final String name) {
+		suppliers.remove(name);
+		return this;
+	}
+
+	@Override
+	public String map(final String input) {
+		final ValueSupplier supplier = suppliers.get(input);
+		return ((supplier == null) ? null : supplier.get(input));
+	}
+
+	/**
+	 * Create Mapper for a single render, each supplier is invoked at most once (null results included)
+	 * 
+	 * @return scoped mapper (not thread-safe)
+	 */
+	public Mapper scope() {
+		return new Scope(this);
+	}
+
+	private static final class Scope implements Mapper {
+		private final LazyMapper lazy;
+		private final HashMap<String, String> memo = new HashMap<String, String>();
+
+		Scope(final LazyMapper lazy) {
+			this.lazy = lazy;
+		}
+
+		@Override
+		public String map(final String input) {
+			String value = memo.get(input);
+			if ((value == null) && !memo.containsKey(input)) {
+				value = lazy.map(input);
+				memo.put(input, value);
+			}
+			return value;
+		}
+	}
+}
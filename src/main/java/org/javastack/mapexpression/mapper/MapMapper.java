@@ -18,4 +18,8 @@ public class MapMapper implements Mapper {
 		}
 		return null;
 	}
+
+	Map<String, String> getMap() {
+		return map;
+	}
 }
@@ -1,7 +1,10 @@
 package org.javastack.mapexpression.mapper;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Vector;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -29,6 +32,66 @@ public class MultiMapper implements Mapper {
 		return this;
 	}
 
+	/**
+	 * Create a compiled copy of this chain: consecutive static mappers ({@link MapMapper},
+	 * {@link PropertiesMapper}) are merged in one lookup table (first mapper wins), other mappers (including
+	 * subclasses, which may override lookup) are kept in order as fallthroughs, nested MultiMappers are
+	 * flattened. Later changes to underlying Maps or Properties are not seen by the copy.
+	 * 
+	 * @return frozen mapper
+	 */
+	public Mapper freeze() {
+		final ArrayList<Mapper> out = new ArrayList<Mapper>();
+		final HashMap<String, String> merged = flatten(this, out, null);
+		if (merged != null)
+			out.add(new MapMapper(merged));
+		return (out.size() == 1 ? out.get(0) : new MultiMapper(out));
+	}
+
+	/**
+	 * Append members of chain to out, merging static mappers
+	 * 
+	 * @param chain to flatten
+	 * @param out frozen chain
+	 * @param merged lookup table being built (can be null)
+	 * @return lookup table being built (can be null)
+	 */
+	private static HashMap<String, String> flatten(final MultiMapper chain, final ArrayList<Mapper> out,
+			HashMap<String, String> merged) {
+		for (final Mapper m : new ArrayList<Mapper>(chain.mappers)) {
+			if (m.getClass() == MultiMapper.class) {
+				merged = flatten((MultiMapper) m, out, merged);
+			} else if (m.getClass() == MapMapper.class) {
+				final Map<String, String> map = ((MapMapper) m).getMap();
+				if (map == null)
+					continue;
+				if (merged == null)
+					merged = new HashMap<String, String>();
+				for (final Map.Entry<String, String> e : map.entrySet()) {
+					if ((e.getValue() != null) && !merged.containsKey(e.getKey()))
+						merged.put(e.getKey(), e.getValue());
+				}
+			} else if (m.getClass() == PropertiesMapper.class) {
+				final Properties prop = ((PropertiesMapper) m).getProperties();
+				if (prop == null)
+					continue;
+				if (merged == null)
+					merged = new HashMap<String, String>();
+				for (final String key : prop.stringPropertyNames()) {
+					if (!merged.containsKey(key))
+						merged.put(key, prop.getProperty(key));
+				}
+			} else {
+				if (merged != null) {
+					out.add(new MapMapper(merged));
+					merged = null;
+				}
+				out.add(m);
+			}
+		}
+		return merged;
+	}
+
 	@Override
 	public String map(final String input) {
 		final int len = mappers.size();
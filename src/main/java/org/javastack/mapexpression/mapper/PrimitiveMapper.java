@@ -0,0 +1,168 @@
+package org.javastack.mapexpression.mapper;
+
+import java.util.HashMap;
+
+/**
+ * Map of primitive (and CharSequence) values. Holders are created on first put of each name, next puts
+ * update them in place (no boxing), so an instance can be refilled for each eval.
+ * 
+ * @threadSafe false
+ */
+public class PrimitiveMapper implements ValueMapper {
+	private static final int LONG = 0;
+	private static final int DOUBLE = 1;
+	private static final int BOOLEAN = 2;
+	private static final int CHARS = 3;
+
+	private final HashMap<String, Value> values = new HashMap<String, Value>();
+
+	private final Value holder(final String name) {
+		Value v = values.get(name);
+		if (v == null) {
+			v = new Value();
+			values.put(name, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Set long value
+	 * 
+	 * @param name of parameter
+	 * @param value to set
+	 * @return self
+	 */
+	public PrimitiveMapper put(final String name, final long value) {
+		final Value v = holder(name);
+		v.type = LONG;
+		v.longValue = value;
+		v.chars = null;
+		return this;
+	}
+
+	/**
+	 * Set int value
+	 * 
+	 * @param name of parameter
+	 * @param value to set
+	 * @return self
+	 */
+	public PrimitiveMapper put(final String name, final int value) {
+		return put(name, (long) value);
+	}
+
+	/**
+	 * Set double value
+	 * 
+	 * @param name of parameter
+	 * @param value to set
+	 * @return self
+	 */
+	public PrimitiveMapper put(final String name, final double value) {
+		final Value v = holder(name);
+		v.type = DOUBLE;
+		v.doubleValue = value;
+		v.chars = null;
+		return this;
+	}
+
+	/**
+	 * Set boolean value
+	 * 
+	 * @param name of parameter
+	 * @param value to set
+	 * @return self
+	 */
+	public PrimitiveMapper put(final String name, final boolean value) {
+		final Value v = holder(name);
+		v.type = BOOLEAN;
+		v.longValue = (value ? 1 : 0);
+		v.chars = null;
+		return this;
+	}
+
+	/**
+	 * Set CharSequence value (null removes name)
+	 * 
+	 * @param name of parameter
+	 * @param value to set
+	 * @return self
+	 */
+	public PrimitiveMapper put(final String name, final CharSequence value) {
+		if (value == null) {
+			remove(name);
+			return this;
+		}
+		final Value v = holder(name);
+		v.type = CHARS;
+		v.chars = value;
+		return this;
+	}
+
+	/**
+	 * Remove value
+	 * 
+	 * @param name of parameter
+	 * @return self
+	 */
+	public PrimitiveMapper remove(final String name) {
+		values.remove(name);
+		return this;
+	}
+
+	/**
+	 * Remove all values
+	 * 
+	 * @return self
+	 */
+	public PrimitiveMapper clear() {
+		values.clear();
+		return this;
+	}
+
+	@Override
+	public boolean write(final String name, final ValueOutput out) {
+		final Value v = values.get(name);
+		if (v == null)
+			return false;
+		switch (v.type) {
+			case LONG:
+				out.append(v.longValue);
+				break;
+			case DOUBLE:
+				out.append(v.doubleValue);
+				break;
+			case BOOLEAN:
+				out.append(v.longValue != 0);
+				break;
+			default:
+				out.append(v.chars);
+				break;
+		}
+		return true;
+	}
+
+	@Override
+	public String map(final String input) {
+		final Value v = values.get(input);
+		if (v == null)
+			return null;
+		switch (v.type) {
+			case LONG:
+				return String.valueOf(v.longValue);
+			case DOUBLE:
+				return String.valueOf(v.doubleValue);
+			case BOOLEAN:
+				return String.valueOf(v.longValue != 0);
+			default:
+				return v.chars.toString();
+		}
+	}
+
+	private static final class Value {
+		int type;
+		long longValue;
+		double doubleValue;
+		CharSequence chars;
+	}
+}
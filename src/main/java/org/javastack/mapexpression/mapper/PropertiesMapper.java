@@ -18,4 +18,8 @@ public class PropertiesMapper implements Mapper {
 		}
 		return null;
 	}
+
+	Properties getProperties() {
+		return prop;
+	}
 }
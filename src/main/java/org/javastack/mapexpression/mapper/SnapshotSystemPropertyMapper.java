@@ -0,0 +1,148 @@
+package org.javastack.mapexpression.mapper;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * System Properties from an immutable snapshot (no lock contention on lookup). Snapshot is refreshed with
+ * {@link #refresh()} or, if check interval is enabled, when the number of System Properties changes
+ * (changes of existing values are only seen on explicit refresh). Version increases on each refresh that
+ * changes some value.
+ *
+ * @threadSafe true
+ */
+public class SnapshotSystemPropertyMapper implements VersionedMapper {
+	private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+	private static final SnapshotSystemPropertyMapper singleton = new SnapshotSystemPropertyMapper(
+			DEFAULT_CHECK_INTERVAL_MILLIS);
+
+	private final long checkIntervalNanos;
+	private volatile Snapshot snapshot;
+	private volatile long nextCheck;
+
+	/**
+	 * Create mapper
+	 *
+	 * @param checkIntervalMillis minimum time between checks of System Properties size (zero or negative to
+	 *            only refresh explicitly)
+	 */
+	public SnapshotSystemPropertyMapper(final long checkIntervalMillis) {
+		this.checkIntervalNanos = ((checkIntervalMillis <= 0) ? 0 : TimeUnit.MILLISECONDS
+				.toNanos(checkIntervalMillis));
+		refresh();
+	}
+
+	/**
+	 * Get shared instance (checks System Properties size every second)
+	 *
+	 * @return instance
+	 */
+	public static SnapshotSystemPropertyMapper getInstance() {
+		return singleton;
+	}
+
+	@Override
+	public String map(final String propName) {
+		if (checkIntervalNanos != 0) {
+			check();
+		}
+		return snapshot.map.get(propName);
+	}
+
+	@Override
+	public long getVersion() {
+		if (checkIntervalNanos != 0) {
+			check();
+		}
+		return snapshot.version;
+	}
+
+	@Override
+	public long getVersion(final String name) {
+		final Snapshot snapshot = this.snapshot;
+		final Long version = snapshot.versions.get(name);
+		return ((version == null) ? snapshot.removed : version.longValue());
+	}
+
+	private final void check() {
+		final long now = System.nanoTime();
+		if ((now - nextCheck) < 0)
+			return;
+		nextCheck = now + checkIntervalNanos;
+		if (System.getProperties().size() != snapshot.size) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Take a new snapshot of System Properties
+	 */
+	public synchronized void refresh() {
+		final Properties props = System.getProperties();
+		final HashMap<String, String> map = new HashMap<String, String>();
+		final int size;
+		synchronized (props) {
+			size = props.size();
+			for (final String name : props.stringPropertyNames()) {
+				final String value = props.getProperty(name);
+				if (value != null)
+					map.put(name, value);
+			}
+		}
+		snapshot = next(snapshot, map, size);
+		nextCheck = System.nanoTime() + checkIntervalNanos;
+	}
+
+	/**
+	 * Create snapshot with versions of changes since previous
+	 */
+	private static final Snapshot next(final Snapshot prev, final HashMap<String, String> map,
+			final int size) {
+		if (prev == null) {
+			final HashMap<String, Long> versions = new HashMap<String, Long>();
+			final Long version = Long.valueOf(1);
+			for (final String name : map.keySet()) {
+				versions.put(name, version);
+			}
+			return new Snapshot(map, size, 1, versions, 1);
+		}
+		if (map.equals(prev.map))
+			return new Snapshot(map, size, prev.version, prev.versions, prev.removed);
+		final long v = prev.version + 1;
+		final Long version = Long.valueOf(v);
+		final HashMap<String, Long> versions = new HashMap<String, Long>();
+		for (final String name : map.keySet()) {
+			final String value = map.get(name);
+			versions.put(name, value.equals(prev.map.get(name)) ? prev.versions.get(name) : version);
+		}
+		final boolean removed = !map.keySet().containsAll(prev.map.keySet());
+		return new Snapshot(map, size, v, versions, (removed ? v : prev.removed));
+	}
+
+	private static final class Snapshot {
+		final HashMap<String, String> map;
+		/**
+		 * Size of System Properties when snapshot was taken
+		 */
+		final int size;
+		final long version;
+		/**
+		 * Version of last change of each name
+		 */
+		final HashMap<String, Long> versions;
+		/**
+		 * Version of last removal (reported for absent names)
+		 */
+		final long removed;
+
+		Snapshot(final HashMap<String, String> map, final int size, final long version,
+				final HashMap<String, Long> versions, final long removed) {
+			this.map = map;
+			this.size = size;
+			this.version = version;
+			this.versions = versions;
+			this.removed = removed;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package org.javastack.mapexpression.mapper;
+
+/**
+ * Mapper that writes values directly to the output (primitives are not boxed or converted to String)
+ */
+public interface ValueMapper extends Mapper {
+	/**
+	 * Write value of name to output
+	 * 
+	 * @param name to map
+	 * @param out destination
+	 * @return false if not found (nothing written)
+	 */
+	public boolean write(final String name, final ValueOutput out);
+}
@@ -0,0 +1,17 @@
+package org.javastack.mapexpression.mapper;
+
+/**
+ * Output of a value written by {@link ValueMapper}, values are written in their
+ * {@link String#valueOf(long)} form without creating intermediate Strings (when the destination allows)
+ */
+public interface ValueOutput {
+	public void append(final CharSequence value);
+
+	public void append(final long value);
+
+	public void append(final int value);
+
+	public void append(final double value);
+
+	public void append(final boolean value);
+}
@@ -0,0 +1,14 @@
+package org.javastack.mapexpression.mapper;
+
+/**
+ * Deferred value of a placeholder, see {@link LazyMapper}
+ */
+public interface ValueSupplier {
+	/**
+	 * Compute value
+	 * 
+	 * @param name of placeholder
+	 * @return value or null if not found
+	 */
+	public String get(final String name);
+}
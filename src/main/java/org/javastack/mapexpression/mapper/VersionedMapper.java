@@ -0,0 +1,23 @@
+package org.javastack.mapexpression.mapper;
+
+/**
+ * Mapper with change stamps, lets {@link org.javastack.mapexpression.MapExpression#setIncremental(boolean)}
+ * skip evaluation when referenced values have not changed
+ */
+public interface VersionedMapper extends Mapper {
+	/**
+	 * Get current version, increased when any value may have changed
+	 * 
+	 * @return version
+	 */
+	public long getVersion();
+
+	/**
+	 * Get version of last change of a name (added, modified or removed), not greater than
+	 * {@link #getVersion()}. Implementations without per name tracking can return {@link #getVersion()}.
+	 * 
+	 * @param name to check
+	 * @return version
+	 */
+	public long getVersion(final String name);
+}
@@ -0,0 +1,160 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.javastack.mapexpression.mapper.MapMapper;
+import org.javastack.mapexpression.mapper.Mapper;
+import org.junit.Test;
+
+public class CompiledExpressionTest {
+	private static final Mapper MAPPER = mapper("a", "A", "b", "B", "x", "X", "a:b", "AB");
+
+	static Mapper mapper(final String... kv) {
+		final Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < kv.length; i += 2) {
+			map.put(kv[i], kv[i + 1]);
+		}
+		return new MapMapper(map);
+	}
+
+	private static String eval(final String expression, final CompileOptions options)
+			throws InvalidExpression {
+		return CompiledExpression.compile(expression, options, null).eval(MAPPER);
+	}
+
+	private static String eval(final String expression, final String begin, final String end)
+			throws InvalidExpression {
+		return eval(expression, CompileOptions.DEFAULT.withDelimiters(begin, end));
+	}
+
+	@Test
+	public void testPlain() throws InvalidExpression {
+		assertEquals("", eval("", "${", "}"));
+		assertEquals("text", eval("text", "${", "}"));
+		assertEquals("A", eval("${a}", "${", "}"));
+		assertEquals("[A][B]", eval("[${a}][${b}]", "${", "}"));
+		assertEquals("AA", eval("${a}${a}", "${", "}"));
+	}
+
+	@Test
+	public void testPartialPrefix() throws InvalidExpression {
+		assertEquals("$X", eval("$${x}", "${", "}"));
+		assertEquals("$$X$", eval("$$${x}$", "${", "}"));
+		assertEquals("#X", eval("####x###", "###", "###"));
+		assertEquals("a$b", eval("a$b", "${", "}"));
+		assertEquals("tail$", eval("tail$", "${", "}"));
+	}
+
+	@Test
+	public void testOverlappingDelimiters() throws InvalidExpression {
+		assertEquals("{X", eval("{{{x}}", "{{", "}}"));
+		assertEquals("{{X}}", eval("{{{{x}}}}", "{{", "}}"));
+		assertEquals("a{{X}}b", eval("a{{{{x}}}}b", "{{", "}}"));
+	}
+
+	@Test
+	public void testUnclosed() {
+		try {
+			eval("abc ${a", "${", "}");
+			fail("Expected InvalidExpression");
+		} catch (InvalidExpression e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEscape() throws InvalidExpression {
+		final CompileOptions options = CompileOptions.DEFAULT.withEscape("\\");
+		assertEquals("${a}", eval("\\${a}", options));
+		assertEquals("\\A", eval("\\\\${a}", options));
+		assertEquals("\\${a}", eval("\\\\\\${a}", options));
+		assertEquals("\\\\A", eval("\\\\\\\\${a}", options));
+		assertEquals("x\\y A", eval("x\\y ${a}", options));
+		assertEquals("x\\\\y", eval("x\\\\y", options));
+		assertEquals("${a}B", eval("\\${a}${b}", options));
+	}
+
+	@Test
+	public void testDefault() throws InvalidExpression {
+		final CompileOptions options = CompileOptions.DEFAULT.withDefaultSeparator(":");
+		assertEquals("A", eval("${a:z}", options));
+		assertEquals("z", eval("${missing:z}", options));
+		assertEquals("", eval("${missing:}", options));
+		assertEquals("A:z", eval("${a}:z", options));
+		assertEquals("A-z", eval("${a}-${missing:z}", options));
+		// Separator after the end delimiter does not belong to the name
+		assertEquals("B:A", eval("${b}:${a}", options));
+		// Without separator the whole name is looked up
+		assertEquals("AB", eval("${a:b}", CompileOptions.DEFAULT));
+	}
+
+	@Test
+	public void testRepeatedNamesWithDefaults() throws InvalidExpression {
+		final CompileOptions options = CompileOptions.DEFAULT.withDefaultSeparator(":");
+		assertEquals("1/2/A", eval("${m:1}/${m:2}/${a:3}", options));
+		assertEquals("A/A", eval("${a:1}/${a}", options));
+	}
+
+	@Test
+	public void testMissingPolicy() throws InvalidExpression {
+		final CompileOptions options = CompileOptions.DEFAULT.withDefaultSeparator(":");
+		assertEquals("[]", eval("[${missing}]", options.withMissingPolicy(MissingPolicy.EMPTY)));
+		assertEquals("[d]", eval("[${missing:d}]", options.withMissingPolicy(MissingPolicy.FAIL)));
+		try {
+			eval("[${missing}]", options.withMissingPolicy(MissingPolicy.FAIL));
+			fail("Expected InvalidExpression");
+		} catch (InvalidExpression e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPreMapper() throws InvalidExpression {
+		final CompiledExpression compiled = CompiledExpression.compile("${p}-${a}", CompileOptions.DEFAULT,
+				mapper("p", "P"));
+		assertEquals("P-A", compiled.eval(MAPPER));
+	}
+
+	@Test
+	public void testEvalBatch() throws InvalidExpression {
+		final CompiledExpression compiled = CompiledExpression.compile("${a}/${b}", "${", "}", null);
+		final String[] out = new String[2];
+		final BatchCallback callback = new BatchCallback() {
+			@Override
+			public void writeEvaled(final int row, final CharSequence data) {
+				out[row] = data.toString();
+			}
+		};
+		compiled.evalBatch(new String[][] {
+				{ "1", "2" }, { "3", "4" }
+		}, callback);
+		assertEquals("1/2", out[0]);
+		assertEquals("3/4", out[1]);
+		try {
+			compiled.evalBatch(new String[][] {
+				{ "1" }
+			}, callback);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
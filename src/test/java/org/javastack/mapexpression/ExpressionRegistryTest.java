@@ -0,0 +1,122 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.javastack.mapexpression.mapper.Mapper;
+import org.junit.Test;
+
+public class ExpressionRegistryTest {
+	private static final Mapper MAPPER = CompiledExpressionTest.mapper("a", "A", "b", "B", "host",
+			"localhost");
+
+	private static String repeat(final char c, final int count) {
+		final char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static ExpressionRegistry roundTrip(final ExpressionRegistry registry) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		registry.writeTo(out);
+		return ExpressionRegistry.readFrom(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final Map<String, String> templates = new LinkedHashMap<String, String>();
+		templates.put("plain", "no placeholders");
+		templates.put("simple", "http://${host}/${a}");
+		templates.put("defaults", "${a:x}-${missing:y}-${missing:}");
+		templates.put("escaped", "\\${a} ${b} \\\\${a}");
+		templates.put("premapped", "${pre}/${a}");
+		templates.put("repeated", "${a}${b}${a}");
+		templates.put("empty", "");
+		templates.put("long", repeat('\u20ac', 30000) + "${a}");
+		final ExpressionRegistry registry = new TemplateCompiler()
+				.setOptions(CompileOptions.DEFAULT.withEscape("\\").withDefaultSeparator(":"))
+				.setPreMapper(CompiledExpressionTest.mapper("pre", "P")).compile(templates);
+		final ExpressionRegistry read = roundTrip(registry);
+		assertEquals(registry.getNames(), read.getNames());
+		assertEquals(registry.size(), read.size());
+		for (final String name : registry.getNames()) {
+			final CompiledExpression expected = registry.get(name);
+			final CompiledExpression actual = read.get(name);
+			assertEquals(name, expected.eval(MAPPER), actual.eval(MAPPER));
+			assertArrayEquals(name, expected.getNames(), actual.getNames());
+		}
+		assertEquals("A-y-", read.get("defaults").eval(MAPPER));
+		assertEquals("${a} B \\A", read.get("escaped").eval(MAPPER));
+		assertEquals("P/A", read.get("premapped").eval(MAPPER));
+		// Read back again gives the same form
+		assertEquals(read.get("long").eval(MAPPER), roundTrip(read).get("long").eval(MAPPER));
+	}
+
+	@Test
+	public void testStringTable() throws IOException {
+		final String big = repeat('\u20ac', 21846);
+		final String surrogate = "lone \ud800 surrogate";
+		final String[] values = {
+				"a", "", big, "a", surrogate, big, "\u0000zero", ""
+		};
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final StringTable writer = new StringTable();
+		for (final String s : values) {
+			writer.write(out, s);
+		}
+		out.flush();
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		final StringTable reader = new StringTable();
+		final String[] read = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			read[i] = reader.read(in);
+		}
+		assertArrayEquals(values, read);
+		// Repeated strings are written once and shared on read
+		assertSame(read[2], read[5]);
+		assertSame(read[0], read[3]);
+		assertEquals(-1, in.read());
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadMagic() throws IOException {
+		ExpressionRegistry.readFrom(new ByteArrayInputStream(new byte[] {
+				1, 2, 3, 4, 0, 2, 0, 0, 0, 0
+		}));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws Exception {
+		final Map<String, String> templates = new LinkedHashMap<String, String>();
+		templates.put("simple", "http://${host}/${a}");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new TemplateCompiler().compile(templates).writeTo(out);
+		final byte[] data = out.toByteArray();
+		ExpressionRegistry.readFrom(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 3)));
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.javastack.mapexpression.mapper.SnapshotSystemPropertyMapper;
+import org.junit.After;
+import org.junit.Test;
+
+public class MapExpressionTest {
+	private static final String A = "mapexpression.test.a";
+	private static final String B = "mapexpression.test.b";
+
+	@After
+	public void clear() {
+		System.clearProperty(A);
+		System.clearProperty(B);
+	}
+
+	private static MapExpression incremental(final String expression,
+			final SnapshotSystemPropertyMapper mapper) throws InvalidExpression {
+		return new MapExpression(expression, null, mapper, false).setIncremental(true);
+	}
+
+	@Test
+	public void testIncremental() throws InvalidExpression {
+		System.setProperty(A, "1");
+		System.setProperty(B, "2");
+		final SnapshotSystemPropertyMapper mapper = new SnapshotSystemPropertyMapper(0);
+		final MapExpression e = incremental("${" + A + "}/${" + B + "}/${" + A + "}", mapper);
+		assertEquals("1/2/1", e.eval().get());
+		// Not seen until refresh
+		System.setProperty(A, "3");
+		assertEquals("1/2/1", e.eval().get());
+		mapper.refresh();
+		assertEquals("3/2/3", e.eval().get());
+		// Refresh without changes keeps result
+		mapper.refresh();
+		assertEquals("3/2/3", e.eval().get());
+		System.setProperty(B, "4");
+		mapper.refresh();
+		assertEquals("3/4/3", e.eval().get());
+		// Same result as full eval
+		final MapExpression full = new MapExpression(e.getExpression(), null, mapper, true);
+		assertEquals(full.get(), e.get());
+	}
+
+	@Test
+	public void testIncrementalFail() throws InvalidExpression {
+		System.setProperty(A, "1");
+		final SnapshotSystemPropertyMapper mapper = new SnapshotSystemPropertyMapper(0);
+		final MapExpression e = incremental("[${" + A + "}]", mapper);
+		e.setMissingPolicy(MissingPolicy.FAIL).parse();
+		assertEquals("[1]", e.eval().get());
+		System.clearProperty(A);
+		mapper.refresh();
+		for (int i = 0; i < 2; i++) {
+			try {
+				e.eval();
+				fail("Expected InvalidExpression");
+			} catch (InvalidExpression ex) {
+				// expected, failed eval must not be remembered as done
+			}
+			assertEquals("[1]", e.get());
+		}
+		System.setProperty(A, "2");
+		mapper.refresh();
+		assertEquals("[2]", e.eval().get());
+	}
+}
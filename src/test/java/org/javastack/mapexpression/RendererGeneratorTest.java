@@ -0,0 +1,123 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.javastack.mapexpression.mapper.MapMapper;
+import org.javastack.mapexpression.mapper.Mapper;
+import org.junit.Test;
+
+public class RendererGeneratorTest {
+	private static final CompileOptions OPTIONS = CompileOptions.DEFAULT.withDefaultSeparator(":");
+
+	/**
+	 * Mapper with values for names n0..n(count-1) skipping every third one
+	 */
+	private static Mapper mapper(final int count) {
+		final Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			if ((i % 3) != 0)
+				map.put("n" + i, "v" + i);
+		}
+		return new MapMapper(map);
+	}
+
+	/**
+	 * Check generated renderer writes the same as interpreter
+	 */
+	private static void check(final String expression, final Mapper mapper) throws InvalidExpression {
+		final String expected = CompiledExpression.compile(expression, OPTIONS, null).eval(mapper);
+		final CompiledExpression generated = CompiledExpression.compile(expression, OPTIONS, null);
+		assertNotNull(generated.generateRenderer());
+		assertEquals(expected, generated.eval(mapper));
+		// Appends after existing content
+		final StringBuilder sb = new StringBuilder("prefix:");
+		generated.eval(sb, mapper);
+		assertEquals("prefix:" + expected, sb.toString());
+	}
+
+	@Test
+	public void testSimple() throws InvalidExpression {
+		check("${n1}", mapper(2));
+		check("a ${n1} b ${n2} c", mapper(3));
+		check("${n0}${n1}${n0}", mapper(2));
+		check("quotes \" and \\ and \u0000 and \ud83d\ude00 ${n1}", mapper(2));
+	}
+
+	@Test
+	public void testWideConstants() throws InvalidExpression {
+		// Each distinct literal takes two constant pool entries, indexes above 255 need ldc_w
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 400; i++) {
+			sb.append("literal").append(i).append("${n").append(i % 4).append('}');
+		}
+		check(sb.toString(), mapper(4));
+	}
+
+	@Test
+	public void testSlots() throws InvalidExpression {
+		// iconst_n (0..5), bipush (6..127) and sipush (128..)
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			sb.append("${n").append(i).append("},");
+		}
+		check(sb.toString(), mapper(300));
+		// Reversed order and repeated
+		sb.setLength(0);
+		for (int i = 299; i >= 0; i--) {
+			sb.append("${n").append(i).append("}${n").append(i % 7).append('}');
+		}
+		check(sb.toString(), mapper(300));
+	}
+
+	@Test
+	public void testRepeatedWithDefaults() throws InvalidExpression {
+		final Mapper mapper = mapper(200);
+		check("${n0:d}/${n0:d}/${n1:d}/${n1:d}", mapper);
+		check("${n3}/${n3}/${n6:}/${n6:}", mapper);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("${n").append(i).append(":def").append(i).append("}${n").append(i).append(":def")
+					.append(i).append('}');
+		}
+		check(sb.toString(), mapper);
+	}
+
+	@Test
+	public void testNotGenerated() throws InvalidExpression {
+		// Same name with different defaults
+		final CompiledExpression compiled = CompiledExpression.compile("${n0:a}${n0:b}", OPTIONS, null);
+		assertNull(compiled.generateRenderer());
+		assertEquals("ab", compiled.eval(mapper(1)));
+		// No placeholders
+		assertNull(CompiledExpression.compile("text", OPTIONS, null).generateRenderer());
+	}
+
+	@Test
+	public void testMissingPolicy() throws InvalidExpression {
+		check("[${n0}][${n1}][${n3:x}]", mapper(4));
+		final CompileOptions empty = OPTIONS.withMissingPolicy(MissingPolicy.EMPTY);
+		final CompiledExpression compiled = CompiledExpression.compile("[${n0}][${n1}][${n3:x}]", empty,
+				null);
+		assertNotNull(compiled.generateRenderer());
+		assertEquals("[][v1][x]", compiled.eval(mapper(4)));
+	}
+}
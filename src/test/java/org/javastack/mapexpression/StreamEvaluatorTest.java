@@ -0,0 +1,95 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.javastack.mapexpression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.javastack.mapexpression.mapper.Mapper;
+import org.junit.Test;
+
+public class StreamEvaluatorTest {
+	private static final Mapper MAPPER = CompiledExpressionTest.mapper("a", "A", "b", "Bee", "x", "X",
+			"long.name", "L");
+
+	private static final String[] TEMPLATES = {
+			"", "plain text", "${a}", "[${a}][${b}]", "${a}${b}${a}", "$${x}", "$$${x}$", "a$b$", "{${a}}",
+			"head ${long.name} tail", "${missing} and ${a}", "$"
+	};
+
+	/**
+	 * Reader returning at most one char per read, splits every delimiter across reads
+	 */
+	private static class TrickleReader extends FilterReader {
+		TrickleReader(final Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			return super.read(cbuf, off, Math.min(len, 1));
+		}
+	}
+
+	private static String stream(final StreamEvaluator evaluator, final Reader in) throws Exception {
+		final StringWriter out = new StringWriter();
+		evaluator.eval(in, out, MAPPER);
+		return out.toString();
+	}
+
+	private static void check(final String template, final String begin, final String end) throws Exception {
+		final String expected = CompiledExpression.compile(template, begin, end, null).eval(MAPPER);
+		for (int size = 1; size <= (template.length() + 2); size++) {
+			final StreamEvaluator evaluator = new StreamEvaluator().setDelimiters(begin, end)
+					.setBufferSize(size);
+			assertEquals(template + " (buffer " + size + ")", expected,
+					stream(evaluator, new StringReader(template)));
+		}
+		final StreamEvaluator evaluator = new StreamEvaluator().setDelimiters(begin, end);
+		assertEquals(template + " (trickle)", expected,
+				stream(evaluator, new TrickleReader(new StringReader(template))));
+	}
+
+	@Test
+	public void testChunkBoundaries() throws Exception {
+		for (final String template : TEMPLATES) {
+			check(template, "${", "}");
+		}
+	}
+
+	@Test
+	public void testOverlappingDelimiters() throws Exception {
+		check("{{{x}}", "{{", "}}");
+		check("{{{{x}}}}", "{{", "}}");
+		check("a{{{{x}}}}b", "{{", "}}");
+		check("####x###", "###", "###");
+		check("<%a%><%b%>", "<%", "%>");
+	}
+
+	@Test(expected = InvalidExpression.class)
+	public void testUnclosed() throws Exception {
+		stream(new StreamEvaluator().setBufferSize(2), new StringReader("abc ${a"));
+	}
+
+	@Test(expected = InvalidExpression.class)
+	public void testMaxNameLength() throws Exception {
+		stream(new StreamEvaluator().setMaxNameLength(4), new StringReader("${long.name}"));
+	}
+}